@@ -11,14 +11,14 @@
  */
 package jmockit.assist;
 
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.ITypeRoot;
 import org.eclipse.jdt.core.JavaCore;
@@ -26,6 +26,7 @@ import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
 import org.eclipse.jdt.core.dom.Annotation;
 import org.eclipse.jdt.core.dom.ClassInstanceCreation;
 import org.eclipse.jdt.core.dom.CompilationUnit;
@@ -107,7 +108,7 @@ public class ASTUtil
 	{
 		for(IAnnotationBinding ann: annotations)
 		{
-			if( annName.equals( ann.getAnnotationType().getQualifiedName()) )
+			if( TypeNames.is(ann.getAnnotationType(), annName) )
 			{
 				return ann;
 			}
@@ -116,19 +117,56 @@ public class ASTUtil
 		return null;
 	}
 
-	public static CompilationUnit getAstOrParse(final ITypeRoot iTypeRoot, final IProgressMonitor mon)
+	public static CompilationUnit getSharedAst(final ITypeRoot iTypeRoot, final IProgressMonitor mon)
 	{
-		CompilationUnit cu = SharedASTProvider.getAST(iTypeRoot, SharedASTProvider.WAIT_NO, mon);
+		return SharedASTProvider.getAST(iTypeRoot, SharedASTProvider.WAIT_NO, mon);
+	}
+
+	/**
+	 * @param focalPosition offset of interest. If there is no shared AST, bodies of methods that
+	 * don't contain it are not parsed.
+	 */
+	public static CompilationUnit getAstOrParse(final ITypeRoot iTypeRoot, final int focalPosition,
+			final IProgressMonitor mon)
+	{
+		CompilationUnit cu = getSharedAst(iTypeRoot, mon);
 
 		if( cu == null && (mon == null || !mon.isCanceled()) )
 		{
-			cu = parse(iTypeRoot, mon);
+			cu = parse(iTypeRoot, focalPosition, mon);
 		}
 
 		return cu;
 	}
 
 	public static CompilationUnit parse(final ITypeRoot unit, final IProgressMonitor mon)
+	{
+		return (CompilationUnit) newParser(unit).createAST(mon); // parse
+	}
+
+	/**
+	 * Parses the given contents of the unit, which may differ from its current ones
+	 */
+	public static CompilationUnit parse(final ITypeRoot unit, final String source, final IProgressMonitor mon)
+	{
+		ASTParser parser = newParser(unit);
+		parser.setSource(source.toCharArray());
+		parser.setUnitName(unit.getPath().toString());
+		return (CompilationUnit) parser.createAST(mon);
+	}
+
+	/**
+	 * Parses only the bodies of the methods that contain the focal position, which is enough to
+	 * resolve the mock type around it
+	 */
+	public static CompilationUnit parse(final ITypeRoot unit, final int focalPosition, final IProgressMonitor mon)
+	{
+		ASTParser parser = newParser(unit);
+		parser.setFocalPosition(focalPosition);
+		return (CompilationUnit) parser.createAST(mon);
+	}
+
+	private static ASTParser newParser(final ITypeRoot unit)
 	{
 		ASTParser parser = ASTParser.newParser(AST.JLS3);
 		parser.setKind(ASTParser.K_COMPILATION_UNIT);
@@ -136,7 +174,27 @@ public class ASTUtil
 		parser.setProject(unit.getJavaProject());
 		parser.setResolveBindings(true);
 		parser.setStatementsRecovery(true);
-		return (CompilationUnit) parser.createAST(mon); // parse
+		return parser;
+	}
+
+	/**
+	 * Parses compilation units of one project in a single batch so that they share the binding environment.
+	 * The requestor is called for each AST as soon as it is ready.
+	 */
+	public static void parse(final ICompilationUnit[] units, final ASTRequestor requestor,
+			final IProgressMonitor mon)
+	{
+		if( units.length == 0 )
+		{
+			return;
+		}
+
+		ASTParser parser = ASTParser.newParser(AST.JLS3);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setProject(units[0].getJavaProject());
+		parser.setResolveBindings(true);
+		parser.setStatementsRecovery(true);
+		parser.createASTs(units, new String[0], requestor, mon);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -171,6 +229,22 @@ public class ASTUtil
 		return origMethod;
 	}
 
+	/**
+	 * @return erasures of the type and all of its super types
+	 */
+	public static Collection<ITypeBinding> getTypeHierarchy(final ITypeBinding type)
+	{
+		Set<ITypeBinding> types = new LinkedHashSet<ITypeBinding>();
+		types.add(type.getErasure());
+
+		for (ITypeBinding superType : Bindings.getAllSuperTypes(type))
+		{
+			types.add(superType.getErasure());
+		}
+
+		return types;
+	}
+
 	public static Set<String> getMethodSignatures(final ITypeBinding objType) throws JavaModelException
 	{
 		Set<String> methods = new TreeSet<String>();
@@ -188,40 +262,4 @@ public class ASTUtil
 		String sig = m.getKey().split(";", 2)[1]; // remove declaring type
 		return m.getName() +  sig;
 	}
-
-	public static Collection<IMethodBinding> getAllMethods(final ITypeBinding paramType, final AST ast)
-			throws JavaModelException
-	{
-		Set<IMethodBinding> methods = new TreeSet<IMethodBinding>(new Comparator<IMethodBinding>()
-		{
-			@Override
-			public int compare(final IMethodBinding m1, final IMethodBinding m2)
-			{
-				return getSig(m1).compareTo( getSig(m2) );
-			}
-		});
-
-		methods.addAll(Arrays.asList( paramType.getDeclaredMethods() ) );
-
-		if( paramType.isInterface() )
-		{
-			ITypeBinding[] superTypes = Bindings.getAllSuperTypes(paramType);
-
-			for(ITypeBinding superType: superTypes )
-			{
-				methods.addAll( Arrays.asList(superType.getDeclaredMethods()) );
-			}
-
-			ITypeBinding obj = ast.resolveWellKnownType(Object.class.getName());
-			for(IMethodBinding m: obj.getDeclaredMethods())
-			{
-				if( !m.isConstructor() )
-				{
-					methods.add(m);
-				}
-			}
-		}
-
-		return methods;
-	}
 }
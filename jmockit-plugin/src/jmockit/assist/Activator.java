@@ -11,18 +11,28 @@
  */
 package jmockit.assist;
 
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.debug.core.DebugPlugin;
-import org.eclipse.debug.core.ILaunchManager;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.junit.JUnitCore;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IEditorReference;
 import org.eclipse.ui.IWindowListener;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
@@ -32,7 +42,20 @@ public class Activator extends AbstractUIPlugin
 	private static BundleContext context;
 	private static Activator plugin;
 
-	private final JunitLaunchListener launchListener = new JunitLaunchListener();
+	private static final String REFERENCE_INDEX_FILE = "mockit-references.idx";
+	private static final String USAGE_INDEX_FILE = "mock-usages.idx";
+	private static final String DEPENDENTS_FILE = "mock-dependents.idx";
+	private static final String ARCHIVE_DIR = "cds";
+
+	private MockitReferenceIndex referenceIndex;
+	private MockUsageIndex usageIndex;
+	private MockDependents mockDependents;
+	private MockIndexer mockIndexer;
+	private final JMockitClasspath mockitClasspath = new JMockitClasspath();
+	private final MemberTables memberTables = new MemberTables();
+	private final MockMethodLinks mockMethodLinks = new MockMethodLinks();
+	private final MockedByAnnotations mockedByAnnotations = new MockedByAnnotations();
+	private final ClassDataSharing classDataSharing = new ClassDataSharing();
 	private IWorkbenchWindow activeWindow;
 	private IWindowListener windowListener;
 
@@ -52,9 +75,27 @@ public class Activator extends AbstractUIPlugin
 		super.start(bundleContext);
 		Activator.context = bundleContext;
 
-		ILaunchManager launchMan = DebugPlugin.getDefault().getLaunchManager();
-
-		launchMan.addLaunchListener(launchListener);
+		JunitLaunchDelegate.install();
+		JUnitCore.addTestRunListener(classDataSharing);
+		DebugPlugin.getDefault().getLaunchManager().addLaunchListener(classDataSharing);
+
+		referenceIndex = new MockitReferenceIndex(getStateLocation().append(REFERENCE_INDEX_FILE).toFile());
+		referenceIndex.load();
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(referenceIndex, IResourceChangeEvent.POST_CHANGE);
+		usageIndex = new MockUsageIndex(getStateLocation().append(USAGE_INDEX_FILE).toFile());
+		usageIndex.load();
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(usageIndex, IResourceChangeEvent.POST_CHANGE);
+		mockDependents = new MockDependents(getStateLocation().append(DEPENDENTS_FILE).toFile());
+		mockDependents.load();
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(mockDependents, IResourceChangeEvent.POST_CHANGE);
+		mockIndexer = new MockIndexer();
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(mockIndexer, IResourceChangeEvent.POST_CHANGE);
+		mockIndexer.start();
+		JavaCore.addElementChangedListener(mockitClasspath, ElementChangedEvent.POST_CHANGE);
+		JavaCore.addElementChangedListener(memberTables,
+				ElementChangedEvent.POST_CHANGE | ElementChangedEvent.POST_RECONCILE);
+		JavaCore.addElementChangedListener(mockedByAnnotations,
+				ElementChangedEvent.POST_CHANGE | ElementChangedEvent.POST_RECONCILE);
 
 		windowListener = createWindowListener();
 		PlatformUI.getWorkbench().addWindowListener(windowListener);
@@ -63,10 +104,23 @@ public class Activator extends AbstractUIPlugin
 	@Override
 	public final void stop(final BundleContext bundleContext) throws Exception
 	{
+		DebugPlugin.getDefault().getLaunchManager().removeLaunchListener(classDataSharing);
+		JUnitCore.removeTestRunListener(classDataSharing);
+		JavaCore.removeElementChangedListener(mockedByAnnotations);
+		JavaCore.removeElementChangedListener(memberTables);
+		JavaCore.removeElementChangedListener(mockitClasspath);
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(mockIndexer);
+		mockIndexer.cancel();
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(referenceIndex);
+		referenceIndex.save();
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(usageIndex);
+		usageIndex.save();
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(mockDependents);
+		mockDependents.save();
+
 		super.stop(bundleContext);
 		Activator.context = null;
 
-		DebugPlugin.getDefault().getLaunchManager().removeLaunchListener(launchListener);
 		PlatformUI.getWorkbench().removeWindowListener(windowListener);
 	}
 
@@ -88,6 +142,64 @@ public class Activator extends AbstractUIPlugin
 		plugin.getLog().log(status);
 	}
 
+	/**
+	 * @return true if tracing is enabled with the {@code jmockit-plugin/debug} option
+	 */
+	public static boolean isDebugging()
+	{
+		return plugin.isDebugging();
+	}
+
+	static MockitReferenceIndex getReferenceIndex()
+	{
+		return plugin.referenceIndex;
+	}
+
+	static MockUsageIndex getMockUsageIndex()
+	{
+		return plugin.usageIndex;
+	}
+
+	static MockDependents getMockDependents()
+	{
+		return plugin.mockDependents;
+	}
+
+	static JMockitClasspath getMockitClasspath()
+	{
+		return plugin.mockitClasspath;
+	}
+
+	static MemberTables getMemberTables()
+	{
+		return plugin.memberTables;
+	}
+
+	static MockMethodLinks getMockMethodLinks()
+	{
+		return plugin.mockMethodLinks;
+	}
+
+	static MockedByAnnotations getMockedByAnnotations()
+	{
+		return plugin.mockedByAnnotations;
+	}
+
+	static ClassDataSharing getClassDataSharing()
+	{
+		return plugin.classDataSharing;
+	}
+
+	/**
+	 * @return directory for class data sharing archives of JUnit launches
+	 */
+	static File getArchiveDirectory()
+	{
+		File dir = plugin.getStateLocation().append(ARCHIVE_DIR).toFile();
+		dir.mkdirs();
+		return dir;
+	}
+
 	public static IPreferenceStore getPrefStore()
 	{
 		return plugin.getPreferenceStore();
@@ -126,6 +238,41 @@ public class Activator extends AbstractUIPlugin
 		return resource;
 	}
 
+	/**
+	 * Gets resources of editors open in the active window
+	 *
+	 * @return resources, empty if there is no active window
+	 */
+	public static Set<IResource> getOpenEditorResources()
+	{
+		Set<IResource> resources = new HashSet<IResource>();
+		IWorkbenchWindow window = getWorkbenchWindow();
+		IWorkbenchPage page = window == null ? null : window.getActivePage();
+
+		if( page == null )
+		{
+			return resources;
+		}
+
+		for (IEditorReference ref : page.getEditorReferences())
+		{
+			try
+			{
+				IResource resource = (IResource) ref.getEditorInput().getAdapter(IResource.class);
+				if( resource != null )
+				{
+					resources.add(resource);
+				}
+			}
+			catch (PartInitException e)
+			{
+				log(e);
+			}
+		}
+
+		return resources;
+	}
+
 	/**
 	 * Gets active editor
 	 * Must be run from UI thread
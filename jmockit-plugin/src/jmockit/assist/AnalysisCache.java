@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IOpenable;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+
+/**
+ * Problems found in a file, reused while neither the file contents
+ * nor the declarations of the types mocked in it have changed
+ */
+final class AnalysisCache
+{
+	private final Map<IPath, Entry> entries = new ConcurrentHashMap<IPath, Entry>();
+
+	/**
+	 * @return cached problems or {@code null} if the file has to be analysed again
+	 */
+	public CategorizedProblem[] get(final IFile file, final byte[] contentHash)
+	{
+		Entry entry = entries.get(file.getFullPath());
+
+		if( entry == null || !Arrays.equals(entry.contentHash, contentHash) )
+		{
+			return null;
+		}
+
+		for (Map.Entry<IOpenable, Long> dep : entry.dependencies.entrySet())
+		{
+			if( getStamp(dep.getKey()) != dep.getValue().longValue() )
+			{
+				return null;
+			}
+		}
+
+		return entry.problems;
+	}
+
+	/**
+	 * @return mocked types of the cached file with their declaring files, empty if it is not cached
+	 */
+	public Map<String, IPath> getTypeFiles(final IFile file)
+	{
+		Entry entry = entries.get(file.getFullPath());
+		return entry == null ? Collections.<String, IPath> emptyMap() : entry.typeFiles;
+	}
+
+	/**
+	 * Does not cache the problems if a mocked type or one of its super types is unresolved, as there
+	 * is no declaration whose change would invalidate them once the type is created or fixed
+	 */
+	public void put(final IFile file, final byte[] contentHash, final Collection<ITypeBinding> mockedTypes,
+			final Map<String, IPath> typeFiles, final CategorizedProblem[] problems)
+	{
+		Collection<IOpenable> inputs = getDeclaringOpenables(mockedTypes);
+
+		if( inputs == null )
+		{
+			remove(file);
+			return;
+		}
+
+		Map<IOpenable, Long> dependencies = new LinkedHashMap<IOpenable, Long>();
+		for (IOpenable openable : inputs)
+		{
+			dependencies.put(openable, getStamp(openable));
+		}
+
+		entries.put(file.getFullPath(), new Entry(contentHash, dependencies, typeFiles, problems));
+	}
+
+	/**
+	 * Mocked methods may come from any super type, so all declarations in the hierarchy are inputs
+	 *
+	 * @return source and class files declaring the mocked types and their super types,
+	 * {@code null} if one of them is unresolved
+	 */
+	static Collection<IOpenable> getDeclaringOpenables(final Collection<ITypeBinding> mockedTypes)
+	{
+		Set<IOpenable> openables = new LinkedHashSet<IOpenable>();
+
+		for (ITypeBinding mockedType : mockedTypes)
+		{
+			for (ITypeBinding type : ASTUtil.getTypeHierarchy(mockedType))
+			{
+				IJavaElement element = type.getJavaElement();
+
+				if( type.isRecovered() || element == null )
+				{
+					return null;
+				}
+
+				IOpenable openable = element instanceof IType ? ((IType) element).getOpenable() : null;
+
+				if( openable != null )
+				{
+					openables.add(openable);
+				}
+			}
+		}
+
+		return openables;
+	}
+
+	public void remove(final IFile file)
+	{
+		entries.remove(file.getFullPath());
+	}
+
+	/**
+	 * @return modification stamp of the source or class file, or of the archive it is in
+	 */
+	static long getStamp(final IOpenable openable)
+	{
+		IJavaElement element = (IJavaElement) openable;
+		IResource res = element.getResource();
+
+		if( res != null )
+		{
+			return res.getModificationStamp();
+		}
+
+		IPackageFragmentRoot root = (IPackageFragmentRoot) element.getAncestor(IJavaElement.PACKAGE_FRAGMENT_ROOT);
+		if( root != null )
+		{
+			if( root.getResource() != null )
+			{
+				return root.getResource().getModificationStamp();
+			}
+
+			return new File(root.getPath().toOSString()).lastModified();
+		}
+
+		return IResource.NULL_STAMP;
+	}
+
+	public static byte[] hashContents(final IFile file) throws CoreException, IOException
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e.getMessage());
+		}
+
+		InputStream in = file.getContents(true);
+		try
+		{
+			byte[] buf = new byte[8192];
+			for (int len = in.read(buf); len != -1; len = in.read(buf))
+			{
+				digest.update(buf, 0, len);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return digest.digest();
+	}
+
+	private static final class Entry
+	{
+		final byte[] contentHash;
+		final Map<IOpenable, Long> dependencies;
+		final Map<String, IPath> typeFiles;
+		final CategorizedProblem[] problems;
+
+		Entry(final byte[] hash, final Map<IOpenable, Long> deps, final Map<String, IPath> types,
+				final CategorizedProblem[] probs)
+		{
+			contentHash = hash;
+			dependencies = deps;
+			typeFiles = types;
+			problems = probs;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
+
+/**
+ * Files waiting for analysis. A file is queued at most once no matter how many builds requested it.
+ * Files open in editors are handed out first, starting with the one in the active editor.
+ * The editors are looked up on the UI thread when files are queued, as reading editor inputs
+ * from the workers could restore editors.
+ */
+final class AnalysisQueue
+{
+	private final Set<IFile> pending = new LinkedHashSet<IFile>();
+	private volatile IResource activeResource;
+	private volatile Set<IResource> openResources = Collections.emptySet();
+
+	public void addAll(final Collection<IFile> files)
+	{
+		synchronized (this)
+		{
+			pending.addAll(files);
+		}
+
+		updateEditors();
+	}
+
+	private void updateEditors()
+	{
+		if( !PlatformUI.isWorkbenchRunning() )
+		{
+			return;
+		}
+
+		Display display = PlatformUI.getWorkbench().getDisplay();
+
+		if( !display.isDisposed() )
+		{
+			display.asyncExec(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					activeResource = Activator.getActiveResource();
+					openResources = Activator.getOpenEditorResources();
+				}
+			});
+		}
+	}
+
+	public synchronized int size()
+	{
+		return pending.size();
+	}
+
+	public synchronized void clear()
+	{
+		pending.clear();
+	}
+
+	/**
+	 * Takes the next files to analyse. Files open in editors are never mixed with other files,
+	 * so that their results are not held back by a large chunk.
+	 *
+	 * @param max maximum number of files to take
+	 * @return next files, empty if the queue is empty
+	 */
+	public Chunk poll(final int max)
+	{
+		IResource active = activeResource;
+		Set<IResource> open = openResources;
+
+		synchronized (this)
+		{
+			List<IFile> files = new ArrayList<IFile>();
+
+			if( active instanceof IFile && pending.remove(active) )
+			{
+				files.add((IFile) active);
+			}
+
+			for (Iterator<IFile> it = pending.iterator(); it.hasNext() && files.size() < max && !open.isEmpty();)
+			{
+				IFile file = it.next();
+				if( open.contains(file) )
+				{
+					files.add(file);
+					it.remove();
+				}
+			}
+
+			if( !files.isEmpty() )
+			{
+				return new Chunk(files, true);
+			}
+
+			for (Iterator<IFile> it = pending.iterator(); it.hasNext() && files.size() < max;)
+			{
+				files.add(it.next());
+				it.remove();
+			}
+
+			return new Chunk(files, false);
+		}
+	}
+
+	static final class Chunk
+	{
+		final List<IFile> files;
+		/** files are open in editors */
+		final boolean inEditors;
+
+		Chunk(final List<IFile> chunkFiles, final boolean openInEditors)
+		{
+			files = chunkFiles;
+			inEditors = openInEditors;
+		}
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.ui.JavaUI;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.text.source.IAnnotationModelExtension;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IEditorReference;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.texteditor.ITextEditor;
+
+/**
+ * Runs reconcile checks in a background job instead of the reconciler thread and shows
+ * the problems as annotations in the editors of the working copy.
+ * Results for contents that have been edited again in the meantime are dropped.
+ */
+final class AsyncReconciler
+{
+	private static final String ERROR_TYPE = "org.eclipse.ui.workbench.texteditor.error";
+	private static final String WARNING_TYPE = "org.eclipse.ui.workbench.texteditor.warning";
+
+	private final IncrementalReconciler reconciler;
+	private final Map<ICompilationUnit, CheckJob> jobs = new HashMap<ICompilationUnit, CheckJob>();
+	/** annotations added to each model, only touched from the UI thread */
+	private final Map<IAnnotationModel, Annotation[]> shown = new WeakHashMap<IAnnotationModel, Annotation[]>();
+
+	AsyncReconciler(final IncrementalReconciler incrementalReconciler)
+	{
+		reconciler = incrementalReconciler;
+	}
+
+	/**
+	 * Schedules a check of the working copy contents the AST was created from and returns immediately.
+	 * The job of a working copy is dropped once it has checked the latest contents.
+	 */
+	public void schedule(final ICompilationUnit cunit, final CompilationUnit ast, final String source)
+	{
+		CheckJob job;
+		synchronized (jobs)
+		{
+			job = jobs.get(cunit);
+			if( job == null )
+			{
+				job = new CheckJob(cunit);
+				jobs.put(cunit, job);
+			}
+
+			job.cancel();
+			job.setInput(ast, source); // under the lock so the job isn't dropped with new input
+		}
+
+		job.schedule();
+	}
+
+	private void deliver(final ICompilationUnit cunit, final String source, final CategorizedProblem[] probs)
+	{
+		Display display = PlatformUI.getWorkbench().getDisplay();
+
+		display.asyncExec(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if( !source.equals(getSource(cunit)) ) // superseded by an edit
+				{
+					return;
+				}
+
+				for (IAnnotationModel model : getAnnotationModels(cunit))
+				{
+					showAnnotations(model, probs);
+				}
+			}
+		});
+	}
+
+	private void showAnnotations(final IAnnotationModel model, final CategorizedProblem[] probs)
+	{
+		Annotation[] old = shown.get(model);
+		Map<Annotation, Position> added = new HashMap<Annotation, Position>();
+
+		for (CategorizedProblem prob : probs)
+		{
+			Annotation ann = new Annotation(prob.isError() ? ERROR_TYPE : WARNING_TYPE, false, prob.getMessage());
+			added.put(ann, new Position(prob.getSourceStart(), prob.getSourceEnd() - prob.getSourceStart()));
+		}
+
+		if( model instanceof IAnnotationModelExtension )
+		{
+			((IAnnotationModelExtension) model).replaceAnnotations(old, added);
+		}
+		else
+		{
+			for (int i = 0; old != null && i < old.length; i++)
+			{
+				model.removeAnnotation(old[i]);
+			}
+
+			for (Map.Entry<Annotation, Position> ann : added.entrySet())
+			{
+				model.addAnnotation(ann.getKey(), ann.getValue());
+			}
+		}
+
+		shown.put(model, added.keySet().toArray(new Annotation[added.size()]));
+	}
+
+	/**
+	 * Must be called from the UI thread
+	 */
+	static Set<IAnnotationModel> getAnnotationModels(final ICompilationUnit cunit)
+	{
+		Set<IAnnotationModel> models = new HashSet<IAnnotationModel>();
+		IJavaElement primary = cunit.getPrimary();
+
+		for (IWorkbenchWindow window : PlatformUI.getWorkbench().getWorkbenchWindows())
+		{
+			for (IWorkbenchPage page : window.getPages())
+			{
+				for (IEditorReference ref : page.getEditorReferences())
+				{
+					IEditorPart editor = ref.getEditor(false);
+
+					if( editor instanceof ITextEditor
+							&& primary.equals(JavaUI.getEditorInputJavaElement(editor.getEditorInput())) )
+					{
+						ITextEditor textEditor = (ITextEditor) editor;
+						IAnnotationModel model = textEditor.getDocumentProvider().getAnnotationModel(
+								textEditor.getEditorInput());
+
+						if( model != null )
+						{
+							models.add(model);
+						}
+					}
+				}
+			}
+		}
+
+		return models;
+	}
+
+	private static String getSource(final ICompilationUnit cunit)
+	{
+		try
+		{
+			return cunit.getSource();
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+
+	private final class CheckJob extends Job
+	{
+		private final ICompilationUnit cunit;
+		private CompilationUnit ast;
+		private String source;
+
+		CheckJob(final ICompilationUnit workingCopy)
+		{
+			super("JMockit reconcile check");
+			cunit = workingCopy;
+
+			setSystem(true);
+			setPriority(Job.SHORT);
+		}
+
+		synchronized boolean hasInput()
+		{
+			return ast != null;
+		}
+
+		synchronized void setInput(final CompilationUnit reconciledAst, final String reconciledSource)
+		{
+			ast = reconciledAst;
+			source = reconciledSource;
+		}
+
+		@Override
+		protected IStatus run(final IProgressMonitor mon)
+		{
+			CompilationUnit checkedAst;
+			String checkedSource;
+			synchronized (this)
+			{
+				checkedAst = ast;
+				checkedSource = source;
+				ast = null; // don't keep the AST alive after the check
+			}
+
+			if( checkedAst == null || mon.isCanceled() )
+			{
+				removeIfDone();
+				return Status.CANCEL_STATUS;
+			}
+
+			try
+			{
+				CategorizedProblem[] probs = reconciler.reconcile(cunit, checkedAst, checkedSource);
+
+				if( !mon.isCanceled() )
+				{
+					deliver(cunit, checkedSource, probs);
+				}
+			}
+			catch (Exception e)
+			{
+				Activator.log(e);
+			}
+			finally
+			{
+				removeIfDone();
+			}
+
+			return mon.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+		}
+
+		/**
+		 * Forgets the job unless contents were reconciled again while it ran,
+		 * so jobs of edited and discarded working copies are not kept
+		 */
+		private void removeIfDone()
+		{
+			synchronized (jobs)
+			{
+				if( !hasInput() && jobs.get(cunit) == this )
+				{
+					jobs.remove(cunit);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.debug.core.ILaunch;
+import org.eclipse.debug.core.ILaunchesListener2;
+import org.eclipse.jdt.junit.TestRunListener;
+import org.eclipse.jdt.junit.model.ITestRunSession;
+import org.eclipse.jdt.launching.IVMInstall;
+import org.eclipse.jdt.launching.IVMInstall2;
+
+/**
+ * Class data sharing archives for JUnit launches with the JMockit javaagent. The first launch of a
+ * classpath dumps the loaded classes to an archive when its JVM exits, later launches map the archive
+ * instead of loading and verifying JMockit, JUnit and project classes again.
+ * <p>
+ * Archives are kept per project in the plug-in state location and named by a hash of the JVM, the JMockit jar
+ * and the classpath with the size and time stamp of each jar, so a changed classpath gets a new archive and
+ * the project's old one is deleted. Needs Java 13 or later for dynamic archives. If an archive doesn't
+ * match, the JVM ignores it and starts as without one.
+ * <p>
+ * Only one launch at a time creates an archive, until it terminates.
+ * <p>
+ * The time from launch until the test run starts is reported with the time of the launch that created the archive.
+ */
+final class ClassDataSharing extends TestRunListener implements ILaunchesListener2
+{
+	private static final int MIN_JAVA_VERSION = 13;
+	private static final long GENERATION_TIMEOUT = 10 * 60 * 1000;
+	private static final String ARCHIVE_EXT = ".jsa";
+	private static final int HASH_LENGTH = 40;
+
+	/** archive path -> start of the launch creating it */
+	private final ConcurrentMap<String, Long> generating = new ConcurrentHashMap<String, Long>();
+	/** running launches using or creating an archive, in launch order */
+	private final Map<ILaunch, Launch> launches = new LinkedHashMap<ILaunch, Launch>();
+	/** archive path -> startup time of the launch that created it */
+	private final Map<String, Long> coldStartups = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Called when the launch starts. If it is to create the archive, deletes the project's old archives and
+	 * keeps other launches from creating the same archive until it terminates.
+	 *
+	 * @param archiveDir directory of the archives
+	 * @return VM arguments to create or use the archive of the classpath, empty if the VM can't share class data
+	 * or another launch is creating the archive
+	 */
+	public String startLaunch(final ILaunch launch, final String projectName, final File archiveDir,
+			final IVMInstall vm, final String[] classpath, final File mockitJar)
+	{
+		String javaVersion = vm instanceof IVMInstall2 ? ((IVMInstall2) vm).getJavaVersion() : null;
+
+		if( getMajorVersion(javaVersion) < MIN_JAVA_VERSION )
+		{
+			return "";
+		}
+
+		String prefix = projectName + '-';
+		File archive = new File(archiveDir, prefix + hash(vm, javaVersion, classpath, mockitJar) + ARCHIVE_EXT);
+		String path = archive.getPath();
+		String args = "";
+		boolean exists = archive.isFile();
+
+		if( exists )
+		{
+			generating.remove(path);
+			args = "-XX:SharedArchiveFile=\"" + path + "\"";
+		}
+		else if( startGenerating(path) )
+		{
+			deleteArchives(archiveDir, prefix, archive);
+			args = "-XX:ArchiveClassesAtExit=\"" + path + "\"";
+		}
+
+		if( args.length() != 0 )
+		{
+			synchronized (launches)
+			{
+				launches.put(launch, new Launch(path, exists));
+			}
+		}
+
+		return args;
+	}
+
+	/**
+	 * @return true if no other launch is creating the archive or it didn't in time
+	 */
+	private boolean startGenerating(final String path)
+	{
+		Long now = Long.valueOf(System.currentTimeMillis());
+		Long started = generating.putIfAbsent(path, now);
+
+		return started == null || (now.longValue() - started.longValue() > GENERATION_TIMEOUT
+				&& generating.replace(path, started, now));
+	}
+
+	/**
+	 * Deletes archives of earlier classpaths of the project, except ones that running launches use
+	 */
+	private void deleteArchives(final File archiveDir, final String prefix, final File keep)
+	{
+		File[] archives = archiveDir.listFiles();
+		Set<String> inUse = new HashSet<String>();
+
+		synchronized (launches)
+		{
+			for (Launch launch : launches.values())
+			{
+				inUse.add(launch.archive);
+			}
+		}
+
+		for (int i = 0; archives != null && i < archives.length; i++)
+		{
+			String name = archives[i].getName();
+
+			if( name.startsWith(prefix) && name.endsWith(ARCHIVE_EXT)
+					&& name.length() == prefix.length() + HASH_LENGTH + ARCHIVE_EXT.length()
+					&& !archives[i].equals(keep) && !inUse.contains(archives[i].getPath()) )
+			{
+				archives[i].delete();
+			}
+		}
+	}
+
+	/**
+	 * @return major version like 13 for "13.0.2" or 8 for "1.8.0_201", 0 if unknown
+	 */
+	static int getMajorVersion(final String javaVersion)
+	{
+		if( javaVersion == null )
+		{
+			return 0;
+		}
+
+		String[] parts = javaVersion.split("[^0-9]+");
+
+		try
+		{
+			if( parts.length > 1 && "1".equals(parts[0]) )
+			{
+				return Integer.parseInt(parts[1]);
+			}
+
+			return parts.length == 0 ? 0 : Integer.parseInt(parts[0]);
+		}
+		catch (NumberFormatException e)
+		{
+			return 0;
+		}
+	}
+
+	private static String hash(final IVMInstall vm, final String javaVersion, final String[] classpath,
+			final File mockitJar)
+	{
+		StringBuilder key = new StringBuilder();
+		key.append(vm.getInstallLocation()).append('\n').append(javaVersion).append('\n');
+
+		appendFile(key, mockitJar);
+		for (String entry : classpath)
+		{
+			appendFile(key, new File(entry));
+		}
+
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.toString().getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+
+			for (byte b : digest)
+			{
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void appendFile(final StringBuilder key, final File file)
+	{
+		key.append(file.getPath());
+
+		if( file.isFile() ) // jars are archived, classes in directories are not
+		{
+			key.append(':').append(file.length()).append(':').append(file.lastModified());
+		}
+
+		key.append('\n');
+	}
+
+	@Override
+	public void sessionStarted(final ITestRunSession session)
+	{
+		Launch launch = findLaunch(session.getTestRunName());
+
+		if( launch == null )
+		{
+			return;
+		}
+
+		long startup = System.currentTimeMillis() - launch.start;
+
+		if( !launch.withArchive )
+		{
+			coldStartups.put(launch.archive, Long.valueOf(startup));
+			return;
+		}
+
+		Long cold = coldStartups.get(launch.archive);
+		String msg = "JUnit launch '" + session.getTestRunName() + "' started in " + startup
+				+ " ms with class data sharing";
+
+		if( cold != null )
+		{
+			msg += ", " + (cold.longValue() - startup) + " ms faster than the " + cold
+					+ " ms of the launch that created the archive";
+		}
+
+		Activator.info(msg);
+	}
+
+	/**
+	 * Test runs are named after their launch configuration, the earliest launch not started yet is taken
+	 */
+	private Launch findLaunch(final String configName)
+	{
+		synchronized (launches)
+		{
+			for (Map.Entry<ILaunch, Launch> e : launches.entrySet())
+			{
+				if( !e.getValue().sessionStarted && e.getKey().getLaunchConfiguration() != null
+						&& configName.equals(e.getKey().getLaunchConfiguration().getName()) )
+				{
+					e.getValue().sessionStarted = true;
+					return e.getValue();
+				}
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public void launchesTerminated(final ILaunch[] terminated)
+	{
+		for (ILaunch launch : terminated)
+		{
+			Launch removed;
+			synchronized (launches)
+			{
+				removed = launches.remove(launch);
+			}
+
+			if( removed != null && !removed.withArchive ) // archive written on exit, or failed
+			{
+				generating.remove(removed.archive);
+			}
+		}
+	}
+
+	@Override
+	public void launchesRemoved(final ILaunch[] removed)
+	{
+		launchesTerminated(removed);
+	}
+
+	@Override
+	public void launchesAdded(final ILaunch[] added)
+	{
+	}
+
+	@Override
+	public void launchesChanged(final ILaunch[] changed)
+	{
+	}
+
+	private static final class Launch
+	{
+		final long start = System.currentTimeMillis();
+		final String archive;
+		/** uses an existing archive, otherwise creates it */
+		final boolean withArchive;
+		/** the test run of the launch has been reported */
+		boolean sessionStarted;
+
+		Launch(final String archivePath, final boolean usesArchive)
+		{
+			archive = archivePath;
+			withArchive = usesArchive;
+		}
+	}
+}
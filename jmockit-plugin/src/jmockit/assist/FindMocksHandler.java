@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.List;
+
+import jmockit.assist.MockUsageIndex.Usage;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeRoot;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.ui.JavaUI;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.window.Window;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.dialogs.ElementListSelectionDialog;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+/**
+ * Finds mocks of the selected type or method in the mock usage index and opens the chosen one
+ */
+public final class FindMocksHandler extends AbstractHandler
+{
+	@Override
+	public Object execute(final ExecutionEvent event) throws ExecutionException
+	{
+		Shell shell = HandlerUtil.getActiveShell(event);
+
+		try
+		{
+			IJavaElement element = getSelectedElement(HandlerUtil.getCurrentSelection(event),
+					HandlerUtil.getActiveEditor(event));
+
+			if( !(element instanceof IType) && !(element instanceof IMethod) )
+			{
+				MessageDialog.openInformation(shell, "Find Mocks", "Select a type or method to find its mocks.");
+				return null;
+			}
+
+			long start = System.currentTimeMillis();
+			MockUsageIndex index = Activator.getMockUsageIndex();
+			List<Usage> mocks = element instanceof IType
+					? index.findMocksOfType(((IType) element).getFullyQualifiedName('.'))
+					: index.findMocksOfMethod((IMethod) element);
+
+			if( Activator.isDebugging() )
+			{
+				Activator.info("Found " + mocks.size() + " mocks of " + element.getElementName() + " in "
+						+ (System.currentTimeMillis() - start) + " ms");
+			}
+
+			if( mocks.isEmpty() )
+			{
+				String msg = "No mocks of '" + element.getElementName() + "' found.";
+
+				if( !index.isComplete() )
+				{
+					msg += " The workspace is still being indexed.";
+				}
+
+				MessageDialog.openInformation(shell, "Find Mocks", msg);
+				return null;
+			}
+
+			ElementListSelectionDialog dialog = new ElementListSelectionDialog(shell, new LabelProvider());
+			dialog.setTitle("Find Mocks");
+			dialog.setMessage("Mocks of '" + element.getElementName() + "':");
+			dialog.setElements(mocks.toArray());
+			dialog.setMultipleSelection(false);
+
+			if( dialog.open() == Window.OK && dialog.getFirstResult() != null )
+			{
+				IJavaElement mock = ((Usage) dialog.getFirstResult()).getMock();
+
+				if( mock != null && mock.exists() )
+				{
+					JavaUI.openInEditor(mock);
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			Activator.log(e);
+			throw new ExecutionException(e.getMessage(), e);
+		}
+
+		return null;
+	}
+
+	private static IJavaElement getSelectedElement(final ISelection selection, final IEditorPart editor)
+			throws JavaModelException
+	{
+		if( selection instanceof IStructuredSelection )
+		{
+			Object first = ((IStructuredSelection) selection).getFirstElement();
+			IJavaElement element = null;
+
+			if( first instanceof IJavaElement )
+			{
+				element = (IJavaElement) first;
+			}
+			else if( first instanceof IAdaptable )
+			{
+				element = (IJavaElement) ((IAdaptable) first).getAdapter(IJavaElement.class);
+			}
+
+			if( element instanceof ITypeRoot )
+			{
+				return ((ITypeRoot) element).findPrimaryType();
+			}
+
+			return element;
+		}
+
+		if( selection instanceof ITextSelection && editor != null )
+		{
+			ITextSelection textSelection = (ITextSelection) selection;
+			ITypeRoot input = JavaUI.getEditorInputTypeRoot(editor.getEditorInput());
+
+			if( input == null )
+			{
+				return null;
+			}
+
+			IJavaElement[] selected = input.codeSelect(textSelection.getOffset(), textSelection.getLength());
+
+			if( selected.length != 0 )
+			{
+				return selected[0];
+			}
+
+			if( input instanceof ICompilationUnit ) // no reference selected, use the enclosing declaration
+			{
+				return ((ICompilationUnit) input).getElementAt(textSelection.getOffset());
+			}
+		}
+
+		return null;
+	}
+}
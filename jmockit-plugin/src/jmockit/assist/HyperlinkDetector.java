@@ -11,17 +11,19 @@
  */
 package jmockit.assist;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import jmockit.assist.MockMethodLinks.Link;
+import jmockit.assist.MockUsageIndex.Usage;
+
+import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.ITypeRoot;
-import org.eclipse.jdt.core.dom.ASTNode;
-import org.eclipse.jdt.core.dom.CompilationUnit;
-import org.eclipse.jdt.core.dom.IMethodBinding;
-import org.eclipse.jdt.core.dom.ITypeBinding;
-import org.eclipse.jdt.core.dom.MethodDeclaration;
-import org.eclipse.jdt.core.dom.NodeFinder;
-import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.internal.ui.javaeditor.EditorUtility;
 import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
+import org.eclipse.jdt.internal.ui.text.JavaWordFinder;
+import org.eclipse.jdt.ui.JavaUI;
 import org.eclipse.jdt.ui.actions.SelectionDispatchAction;
 import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.text.IRegion;
@@ -45,7 +47,7 @@ public class HyperlinkDetector extends AbstractHyperlinkDetector
 			final boolean canShowMultipleHyperlinks)
 	{
 		ITextEditor textEditor= (ITextEditor) getAdapter(ITextEditor.class);
-		if (region == null || !(textEditor instanceof JavaEditor))
+		if (region == null || !(textEditor instanceof JavaEditor) || textViewer.getDocument() == null)
 		{
 			return null;
 		}
@@ -62,53 +64,104 @@ public class HyperlinkDetector extends AbstractHyperlinkDetector
 			return null;
 		}
 
-		ITypeBinding paramType = null;
-		IRegion wordRegion = null;
-		IMethodBinding mockMethod = null, realMethod = null;
+		Link link = Activator.getMockMethodLinks().find(input, textViewer.getDocument(), region.getOffset());
 
-		CompilationUnit astRoot = ASTUtil.getAstOrParse(input, null);
-		if( astRoot == null )
+		if ( link != null )
 		{
-			return null;
+			SelectionDispatchAction dispatchAction = (SelectionDispatchAction) openAction;
+
+			return new IHyperlink[]{new OpenMockedMethodHyperlink(dispatchAction, link.realMethod, link.region)};
 		}
 
-		ASTNode node = NodeFinder.perform(astRoot, region.getOffset(), 1);
+		List<Usage> mocks = Activator.getMockedByAnnotations().findMocks(input, region.getOffset());
 
-		if( node instanceof SimpleName && node.getParent() instanceof MethodDeclaration )
+		if( !mocks.isEmpty() ) // mocked method in production code
 		{
-			MethodDeclaration mdec = (MethodDeclaration) node.getParent();
-			mockMethod = mdec.resolveBinding();
-
-			paramType = MockUtil.findMockedType(mdec, mockMethod);
-
-			wordRegion = new Region(node.getStartPosition(), node.getLength());
+			IRegion nameRegion = findWord(textViewer, region.getOffset());
+			List<IHyperlink> links = new ArrayList<IHyperlink>();
 
-			if( paramType != null && mockMethod != null )
+			for (Usage mock : mocks)
 			{
-				realMethod = MockUtil.findRealMethodInType(paramType, mockMethod, astRoot.getAST());
+				links.add(new OpenMockHyperlink(mock, nameRegion));
+
+				if( !canShowMultipleHyperlinks )
+				{
+					break;
+				}
 			}
 
+			return links.toArray(new IHyperlink[links.size()]);
 		}
 
-		if ( realMethod != null && wordRegion != null )
+		return null;
+	}
+
+	private static IRegion findWord(final ITextViewer textViewer, final int offset)
+	{
+		IRegion word = JavaWordFinder.findWord(textViewer.getDocument(), offset);
+		return word == null ? new Region(offset, 0) : word;
+	}
+
+	/**
+	 * Opens a mock of the method in production code
+	 */
+	static class OpenMockHyperlink implements IHyperlink
+	{
+		private final Usage mock;
+		private final IRegion region;
+
+		public OpenMockHyperlink(final Usage mockUsage, final IRegion wordRegion)
 		{
-			SelectionDispatchAction dispatchAction = (SelectionDispatchAction) openAction;
+			mock = mockUsage;
+			region = wordRegion;
+		}
 
-			return new IHyperlink[]{new OpenMockedMethodHyperlink(dispatchAction, realMethod, wordRegion)};
+		@Override
+		public IRegion getHyperlinkRegion()
+		{
+			return region;
 		}
 
-		return null;
+		@Override
+		public String getTypeLabel()
+		{
+			return null;
+		}
+
+		@Override
+		public String getHyperlinkText()
+		{
+			return "Open Mock " + mock.label;
+		}
+
+		@Override
+		public void open()
+		{
+			try
+			{
+				IJavaElement element = mock.getMock();
+
+				if( element != null && element.exists() )
+				{
+					JavaUI.openInEditor(element);
+				}
+			}
+			catch(Exception e)
+			{
+				Activator.log(e);
+			}
+		}
 	}
 
 	static class OpenMockedMethodHyperlink implements IHyperlink
 	{
 
 		private IRegion region;
-		private IMethodBinding realMethod;
+		private IMethod realMethod;
 		private SelectionDispatchAction action;
 
 		public OpenMockedMethodHyperlink(final SelectionDispatchAction dispatchAction,
-				final IMethodBinding method, final IRegion wordRegion)
+				final IMethod method, final IRegion wordRegion)
 		{
 			this.region = wordRegion;
 			this.realMethod = method;
@@ -138,12 +191,7 @@ public class HyperlinkDetector extends AbstractHyperlinkDetector
 		{
 			try
 			{
-				IMethod method= (IMethod) realMethod.getJavaElement();
-
-				if (method != null)
-				{
-					action.run(new StructuredSelection(method));
-				}
+				action.run(new StructuredSelection(realMethod));
 			}
 			catch(Exception e)
 			{
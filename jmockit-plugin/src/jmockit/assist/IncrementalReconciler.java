@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.IBuffer;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IOpenable;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.NodeFinder;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+
+/**
+ * Checks working copies on reconcile. Only the mock type that contains the region edited since
+ * the previous reconcile is visited again, problems in the rest of the file are reused.
+ * Nothing is reused once a declaration of a mocked type has changed, saved or in an editor,
+ * as JDT reconciles the working copy again without it having changed.
+ */
+final class IncrementalReconciler
+{
+	private static final int MAX_WORKING_COPIES = 16;
+
+	private final Map<ICompilationUnit, State> states = new LinkedHashMap<ICompilationUnit, State>(
+			MAX_WORKING_COPIES, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<ICompilationUnit, State> eldest)
+		{
+			return size() > MAX_WORKING_COPIES;
+		}
+	};
+
+	/**
+	 * @param source contents of the working copy the AST was created from
+	 */
+	public CategorizedProblem[] reconcile(final ICompilationUnit cunit, final CompilationUnit ast,
+			final String source)
+	{
+		if( source == null || source.length() != ast.getStartPosition() + ast.getLength() )
+		{
+			return check(cunit, ast); // AST is not of the current contents
+		}
+
+		State prev;
+		synchronized (states)
+		{
+			prev = states.get(cunit);
+		}
+
+		if( prev != null && !prev.isUpToDate() ) // a mocked type changed
+		{
+			prev = null;
+		}
+
+		State state = null;
+
+		if( prev != null && prev.source.equals(source) )
+		{
+			return prev.problems;
+		}
+		else if( prev != null )
+		{
+			state = recheck(cunit, ast, prev, source);
+		}
+
+		if( state == null )
+		{
+			state = check(cunit, ast, source);
+		}
+
+		synchronized (states)
+		{
+			if( state.dependencies != null )
+			{
+				states.put(cunit, state);
+			}
+			else // unresolved mocked types, nothing tells when they are fixed
+			{
+				states.remove(cunit);
+			}
+		}
+
+		return state.problems;
+	}
+
+	private static State check(final ICompilationUnit cunit, final CompilationUnit ast, final String source)
+	{
+		MockASTVisitor visitor = new MockASTVisitor(cunit);
+		ast.accept(visitor);
+		return new State(source, visitor.getProblems(), getVersions(visitor.getMockedTypes(), null));
+	}
+
+	/**
+	 * @param prev versions of the inputs of the problems that are reused, or {@code null}
+	 * @return versions of the files declaring the mocked types and their super types,
+	 * {@code null} if one of them is unresolved
+	 */
+	private static Map<IOpenable, String> getVersions(final Collection<ITypeBinding> mockedTypes,
+			final Map<IOpenable, String> prev)
+	{
+		Collection<IOpenable> openables = AnalysisCache.getDeclaringOpenables(mockedTypes);
+
+		if( openables == null )
+		{
+			return null;
+		}
+
+		Map<IOpenable, String> versions = new LinkedHashMap<IOpenable, String>();
+		if( prev != null )
+		{
+			versions.putAll(prev);
+		}
+
+		for (IOpenable openable : openables)
+		{
+			versions.put(openable, getVersion(openable));
+		}
+
+		return versions;
+	}
+
+	/**
+	 * @return modification stamp of the file, with the hash of the buffer if it has unsaved changes
+	 */
+	private static String getVersion(final IOpenable openable)
+	{
+		String version = Long.toString(AnalysisCache.getStamp(openable));
+
+		try
+		{
+			if( openable.hasUnsavedChanges() )
+			{
+				IBuffer buffer = openable.getBuffer();
+				String contents = buffer == null ? null : buffer.getContents();
+				version += ":" + (contents == null ? 0 : contents.hashCode());
+			}
+		}
+		catch (JavaModelException e) // closed, compare by stamp only
+		{
+		}
+
+		return version;
+	}
+
+	/**
+	 * @return problems or {@code null} if the edit is not inside a single mock type
+	 */
+	private static State recheck(final ICompilationUnit cunit, final CompilationUnit ast,
+			final State prev, final String source)
+	{
+		String old = prev.source;
+		int maxCommon = Math.min(old.length(), source.length());
+
+		int start = 0;
+		while( start < maxCommon && old.charAt(start) == source.charAt(start) )
+		{
+			start++;
+		}
+
+		int suffix = 0;
+		while( suffix < maxCommon - start
+				&& old.charAt(old.length() - 1 - suffix) == source.charAt(source.length() - 1 - suffix) )
+		{
+			suffix++;
+		}
+
+		int oldEnd = old.length() - suffix;
+		int newEnd = source.length() - suffix;
+		int delta = newEnd - oldEnd;
+
+		ASTNode mock = findEnclosingMock(NodeFinder.perform(ast, start, newEnd - start), start, newEnd);
+		if( mock == null )
+		{
+			return null;
+		}
+
+		int mockStart = mock.getStartPosition();
+		int mockEnd = mockStart + mock.getLength();
+		String filePath = cunit.getPath().toOSString();
+		List<CategorizedProblem> probs = new ArrayList<CategorizedProblem>();
+
+		for (CategorizedProblem prob : prev.problems)
+		{
+			if( prob.getSourceStart() >= mockStart && prob.getSourceEnd() <= mockEnd - delta )
+			{
+				continue; // inside the mock that is checked again
+			}
+
+			int probStart = prob.getSourceStart() >= oldEnd ? prob.getSourceStart() + delta : prob.getSourceStart();
+			int probEnd = prob.getSourceEnd() >= oldEnd ? prob.getSourceEnd() + delta : prob.getSourceEnd();
+
+			probs.add(MockASTVisitor.createProblem(filePath, prob.getMessage(), prob.isError(), probStart, probEnd, ast));
+		}
+
+		MockASTVisitor visitor = new MockASTVisitor(cunit);
+		visitor.visitSubtree(ast, mock);
+
+		for (CategorizedProblem prob : visitor.getProblems())
+		{
+			// problems reported outside of the mock, like on the MockUp creation, have not changed
+			if( prob.getSourceStart() >= mockStart && prob.getSourceEnd() <= mockEnd )
+			{
+				probs.add(prob);
+			}
+		}
+
+		Collections.sort(probs, new Comparator<CategorizedProblem>()
+		{
+			@Override
+			public int compare(final CategorizedProblem p1, final CategorizedProblem p2)
+			{
+				return p1.getSourceStart() - p2.getSourceStart();
+			}
+		});
+
+		// the other mocks were checked against the previous inputs, which are still up to date
+		return new State(source, probs.toArray(new CategorizedProblem[probs.size()]),
+				getVersions(visitor.getMockedTypes(), prev.dependencies));
+	}
+
+	/**
+	 * @return innermost mock type that strictly contains the edited region
+	 */
+	private static ASTNode findEnclosingMock(final ASTNode covering, final int start, final int end)
+	{
+		for (ASTNode node = covering; node != null; node = node.getParent())
+		{
+			if( node.getStartPosition() < start && end < node.getStartPosition() + node.getLength()
+					&& isMock(node) )
+			{
+				return node;
+			}
+		}
+
+		return null;
+	}
+
+	private static boolean isMock(final ASTNode node)
+	{
+		ITypeBinding binding = null;
+
+		if( node instanceof AnonymousClassDeclaration )
+		{
+			binding = ((AnonymousClassDeclaration) node).resolveBinding();
+		}
+		else if( node instanceof TypeDeclaration )
+		{
+			binding = ((TypeDeclaration) node).resolveBinding();
+
+			if( binding != null && MockUtil.hasMockClass(binding) )
+			{
+				return true;
+			}
+		}
+
+		return binding != null && MockUtil.isMockUpType(binding.getSuperclass());
+	}
+
+	private static final class State
+	{
+		final String source;
+		final CategorizedProblem[] problems;
+		/** versions of the files declaring the mocked types, {@code null} if some are unresolved */
+		final Map<IOpenable, String> dependencies;
+
+		State(final String contents, final CategorizedProblem[] probs, final Map<IOpenable, String> deps)
+		{
+			source = contents;
+			problems = probs;
+			dependencies = deps;
+		}
+
+		boolean isUpToDate()
+		{
+			if( dependencies == null )
+			{
+				return false;
+			}
+
+			for (Map.Entry<IOpenable, String> dep : dependencies.entrySet())
+			{
+				if( !getVersion(dep.getKey()).equals(dep.getValue()) )
+				{
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * Remembers per project whether JMockit is on the classpath, so that builds, reconciles
+ * and launches don't search for its types every time.
+ * A project's entry is dropped when its classpath changes or it is closed or removed.
+ */
+final class JMockitClasspath implements IElementChangedListener
+{
+	private static final int CLASSPATH_CHANGED = IJavaElementDelta.F_CLASSPATH_CHANGED
+			| IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED | IJavaElementDelta.F_CLOSED
+			| IJavaElementDelta.F_OPENED;
+
+	private final Map<IJavaProject, Lookup> lookups = new ConcurrentHashMap<IJavaProject, Lookup>();
+
+	public boolean isOnClasspath(final IJavaProject project)
+	{
+		try
+		{
+			return findMockitType(project) != null;
+		}
+		catch (JavaModelException e)
+		{
+			Activator.log(e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return type from the JMockit jar or {@code null} if it is not on the project's classpath
+	 */
+	public IType findMockitType(final IJavaProject project) throws JavaModelException
+	{
+		Lookup lookup = lookups.get(project);
+
+		if( lookup == null )
+		{
+			IType mockitType = project.findType(MockUtil.MOCK);
+			if (mockitType == null) {
+				mockitType = project.findType(MockUtil.MOCKIT);
+			}
+
+			lookup = new Lookup(mockitType);
+			lookups.put(project, lookup);
+		}
+
+		return lookup.type;
+	}
+
+	@Override
+	public void elementChanged(final ElementChangedEvent event)
+	{
+		if( !lookups.isEmpty() )
+		{
+			visit(event.getDelta());
+		}
+	}
+
+	private void visit(final IJavaElementDelta delta)
+	{
+		IJavaElement element = delta.getElement();
+
+		if( element.getElementType() == IJavaElement.JAVA_MODEL )
+		{
+			for (IJavaElementDelta child : delta.getAffectedChildren())
+			{
+				visit(child);
+			}
+		}
+		else if( element.getElementType() == IJavaElement.JAVA_PROJECT )
+		{
+			if( delta.getKind() != IJavaElementDelta.CHANGED || (delta.getFlags() & CLASSPATH_CHANGED) != 0 )
+			{
+				lookups.remove(element);
+			}
+		}
+	}
+
+	private static final class Lookup
+	{
+		final IType type;
+
+		Lookup(final IType mockitType)
+		{
+			type = mockitType;
+		}
+	}
+}
@@ -11,35 +11,44 @@
  */
 package jmockit.assist;
 
-import static org.eclipse.core.resources.IMarker.SEVERITY_ERROR;
-import static org.eclipse.core.resources.IMarker.SEVERITY_WARNING;
-
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import jmockit.assist.prefs.Prefs;
 import jmockit.assist.prefs.Prefs.CheckScope;
 
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.WorkspaceJob;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaProject;
-import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.compiler.BuildContext;
 import org.eclipse.jdt.core.compiler.CategorizedProblem;
 import org.eclipse.jdt.core.compiler.CompilationParticipant;
 import org.eclipse.jdt.core.compiler.ReconcileContext;
+import org.eclipse.jdt.core.dom.ASTRequestor;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.ui.progress.IProgressConstants;
 
@@ -50,8 +59,14 @@ import org.eclipse.ui.progress.IProgressConstants;
 public final class JMockitCompilationParticipant extends CompilationParticipant
 {
 	private static final int JOB_DELAY = 2000;
+	private static final int WORKER_COUNT = Runtime.getRuntime().availableProcessors();
+	private static final int PROGRESS_INTERVAL = 100;
+	private static final int BATCH_SIZE = 32;
+	private static final int PUBLISH_BATCH_SIZE = 100;
 	//private static final int JOB_DELAY = 2000;
 	public static final String MARKER = "jmockit.eclipse.marker";
+	private final IncrementalReconciler reconciler = new IncrementalReconciler();
+	private final AsyncReconciler asyncReconciler = new AsyncReconciler(reconciler);
 	private AnalysisJob job = new AnalysisJob();
 
 	@Override
@@ -71,11 +86,18 @@ public final class JMockitCompilationParticipant extends CompilationParticipant
 			activeProj = res.getProject().getName();
 		}
 
-		List<BuildContext> filesToParse = new ArrayList<BuildContext>();
+		// mocks of changed production classes may have become invalid even though they were not rebuilt
+		Set<IFile> candidates = new LinkedHashSet<IFile>();
 		for (BuildContext f : files)
 		{
-			IFile file = f.getFile();
+			candidates.add(f.getFile());
+			candidates.addAll(Activator.getMockDependents().getDependents(f.getFile()));
+		}
 
+		MockitReferenceIndex index = Activator.getReferenceIndex();
+		List<IFile> filesToParse = new ArrayList<IFile>();
+		for (IFile file : candidates)
+		{
 			if( (scope == CheckScope.Project || scope == CheckScope.File )
 					&& !file.getProject().getName().equals(activeProj))
 			{
@@ -87,7 +109,13 @@ public final class JMockitCompilationParticipant extends CompilationParticipant
 				continue;
 			}
 
-			filesToParse.add(f);
+			if( index.isKnownToNotReferenceMockit(file) ) // unknown files are scanned by the analysis job
+			{
+				Activator.getMockUsageIndex().remove(file); // mocks may have been deleted
+				continue;
+			}
+
+			filesToParse.add(file);
 		}
 
 		job.addFiles(filesToParse);
@@ -134,20 +162,7 @@ public final class JMockitCompilationParticipant extends CompilationParticipant
 			return false;
 		}
 
-		IType mockitType = null;
-		try
-		{
-			mockitType = project.findType(MockUtil.MOCK);
-			if (mockitType == null) {
-				mockitType = project.findType(MockUtil.MOCKIT);
-			}
-		}
-		catch (JavaModelException e)
-		{
-			Activator.log(e);
-		}
-
-		return mockitType != null;
+		return Activator.getMockitClasspath().isOnClasspath(project);
 	}
 
 	@Override
@@ -162,11 +177,15 @@ public final class JMockitCompilationParticipant extends CompilationParticipant
 		{
 			ICompilationUnit cunit = context.getWorkingCopy();
 
-			if( cunit.isStructureKnown() )
+			if( cunit.isStructureKnown() && Activator.getReferenceIndex().referencesMockit(cunit) )
 			{
-				MockASTVisitor visitor = new MockASTVisitor(cunit);
-				context.getAST3().accept(visitor);
-				CategorizedProblem[] probs = visitor.getProblems();
+				if( Activator.getPrefStore().getBoolean(Prefs.PROP_ASYNC_RECONCILE) )
+				{
+					asyncReconciler.schedule(cunit, context.getAST3(), cunit.getSource());
+					return;
+				}
+
+				CategorizedProblem[] probs = reconciler.reconcile(cunit, context.getAST3(), cunit.getSource());
 
 				if (probs.length != 0)
 				{
@@ -182,7 +201,14 @@ public final class JMockitCompilationParticipant extends CompilationParticipant
 
 	private static class AnalysisJob extends WorkspaceJob
 	{
-		private Queue<BuildContext> files = new ConcurrentLinkedQueue<BuildContext>();
+		private final AnalysisQueue files = new AnalysisQueue();
+
+		private final Queue<FileProblems> results = new ConcurrentLinkedQueue<FileProblems>();
+		private final AtomicBoolean urgentResults = new AtomicBoolean();
+		private final AnalysisCache cache = new AnalysisCache();
+		private final AtomicInteger analysed = new AtomicInteger();
+		private final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		private volatile String currentFile;
 
 		public AnalysisJob()
 		{
@@ -190,55 +216,85 @@ public final class JMockitCompilationParticipant extends CompilationParticipant
 
 			setSystem(false);
 			setProperty(IProgressConstants.KEEP_PROPERTY, Boolean.FALSE);
+			// no scheduling rule: workers parse and resolve bindings while the job thread publishes their results
+			setRule(null);
 		}
 
-		void addFiles( final Collection<BuildContext> buildContexts)
+		void addFiles( final Collection<IFile> toAnalyse)
 		{
-			files.addAll(buildContexts);
+			files.addAll(toAnalyse);
 		}
 
 		@Override
 		public IStatus runInWorkspace(final IProgressMonitor mon) throws CoreException
 		{
 			String taskName = "JMockit file analysis";
-			int workSize = files.size(), worked = 0;
+			int workSize = files.size();
 			mon.beginTask(taskName, workSize);
-			BuildContext f = files.poll();
 
-			while( f != null && !mon.isCanceled() )
+			int workerCount = Math.max(1, Math.min(WORKER_COUNT, workSize));
+			ExecutorService workers = Executors.newFixedThreadPool(workerCount, new WorkerThreadFactory());
+
+			analysed.set(0);
+			error.set(null);
+
+			IProgressMonitor workerMon = Util.cancelOnly(mon); // progress is reported from the job thread only
+			for (int i = 0; i < workerCount; i++)
 			{
-				IFile file = f.getFile();
+				workers.execute(new Worker(workerMon));
+			}
+			workers.shutdown();
 
-				if( file.isAccessible() && !file.isDerived(IResource.CHECK_ANCESTORS) )
+			int worked = 0;
+			try
+			{
+				// the monitor is only touched from the job thread, workers just count what they did
+				while( !workers.awaitTermination(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS) || worked < analysed.get() )
 				{
-					ICompilationUnit cunit = JavaCore.createCompilationUnitFrom(file);
+					int done = analysed.get();
 
-					try
+					if( files.size() > workSize - done ) // added more files
 					{
-						mon.setTaskName(taskName + " - " + cunit.getElementName());
-						analyseFile(file, cunit, mon);
+						workSize = files.size() + done;
+						mon.beginTask(taskName, workSize);
+						mon.worked(done);
 					}
-					catch (Exception e)
+					else
 					{
-						Activator.log(e);
-						setProperty(IProgressConstants.KEEP_PROPERTY, Boolean.TRUE);
-						files.clear();
-						return Activator.createStatus(e);
+						mon.worked(done - worked);
 					}
-				}
-
-				mon.worked(1);
-				f = files.poll();
+					worked = done;
 
-				worked++;
+					String current = currentFile;
+					if( current != null )
+					{
+						mon.setTaskName(taskName + " - " + current);
+					}
 
-				if( files.size() > workSize - worked ) // added more files
-				{
-					workSize = files.size() + worked;
-					mon.beginTask(taskName, workSize);
-					mon.worked(worked);
+					if( results.size() >= PUBLISH_BATCH_SIZE || urgentResults.getAndSet(false) )
+					{
+						publishResults();
+					}
 				}
 			}
+			catch (InterruptedException e)
+			{
+				workers.shutdownNow();
+				Thread.currentThread().interrupt();
+				files.clear();
+				return Status.CANCEL_STATUS;
+			}
+
+			publishResults();
+			Activator.getMockedByAnnotations().indexChanged(); // once, not for every analysed file
+
+			Exception e = error.get();
+			if( e != null )
+			{
+				setProperty(IProgressConstants.KEEP_PROPERTY, Boolean.TRUE);
+				files.clear();
+				return Activator.createStatus(e);
+			}
 
 			if( mon.isCanceled() )
 			{
@@ -251,35 +307,245 @@ public final class JMockitCompilationParticipant extends CompilationParticipant
 			return Status.OK_STATUS;
 		}
 
-		public void analyseFile(final IFile file, final ICompilationUnit cunit, final IProgressMonitor mon)
-				throws JavaModelException, CoreException
+		private void publishResults() throws CoreException
+		{
+			Map<IFile, CategorizedProblem[]> batch = new LinkedHashMap<IFile, CategorizedProblem[]>();
+
+			for (FileProblems res = results.poll(); res != null; res = results.poll())
+			{
+				batch.put(res.file, res.problems); // the latest analysis of a file wins
+			}
+
+			ProblemMarkers.publish(batch, null);
+		}
+
+		/**
+		 * Drains the shared file queue until it is empty, the job is canceled or another worker failed.
+		 * Its monitor only forwards cancellation, so it can be handed to parsers from several workers.
+		 */
+		private final class Worker implements Runnable
+		{
+			private final IProgressMonitor mon;
+
+			Worker(final IProgressMonitor monitor)
+			{
+				mon = monitor;
+			}
+
+			@Override
+			public void run()
+			{
+				AnalysisQueue.Chunk chunk = files.poll(BATCH_SIZE);
+
+				while( !chunk.files.isEmpty() && !mon.isCanceled() && error.get() == null )
+				{
+					try
+					{
+						analyseChunk(chunk.files, mon);
+
+						if( chunk.inEditors ) // publish right away, the developer is looking at them
+						{
+							urgentResults.set(true);
+						}
+					}
+					catch (Exception e)
+					{
+						Activator.log(e);
+						error.compareAndSet(null, e);
+						return;
+					}
+
+					chunk = files.poll(BATCH_SIZE);
+				}
+			}
+		}
+
+		/**
+		 * Analyses files that already have a shared AST directly and parses the rest in one
+		 * batch per project, so binding resolution is shared across the chunk
+		 */
+		private void analyseChunk(final List<IFile> chunk, final IProgressMonitor mon) throws CoreException
 		{
-			if ( cunit != null && cunit.exists() && cunit.isStructureKnown() )
+			Map<IJavaProject, List<ICompilationUnit>> toParse = new LinkedHashMap<IJavaProject, List<ICompilationUnit>>();
+			Map<ICompilationUnit, byte[]> hashes = new HashMap<ICompilationUnit, byte[]>();
+
+			for (IFile file : chunk)
+			{
+				if( file.isAccessible() && !file.isDerived(IResource.CHECK_ANCESTORS) )
+				{
+					if( !Activator.getReferenceIndex().referencesMockit(file) ) // reads files not scanned yet
+					{
+						Activator.getMockUsageIndex().remove(file);
+						analysed.incrementAndGet();
+						continue;
+					}
+
+					ICompilationUnit cunit = JavaCore.createCompilationUnitFrom(file);
+
+					if ( cunit != null && cunit.exists() && cunit.isStructureKnown() )
+					{
+						currentFile = cunit.getElementName();
+						byte[] hash = getContentHash(file, cunit);
+
+						if( hash != null )
+						{
+							CategorizedProblem[] cached = cache.get(file, hash);
+							if( cached != null ) // neither the file nor the mocked types changed
+							{
+								// not analysed since a restart, so its mocked types may not be recorded yet
+								Activator.getMockDependents().update(file, cache.getTypeFiles(file));
+								publishProblems(file, cached);
+								analysed.incrementAndGet();
+								continue;
+							}
+							hashes.put(cunit, hash);
+						}
+
+						CompilationUnit cu = ASTUtil.getSharedAst(cunit, mon);
+
+						if( cu == null )
+						{
+							List<ICompilationUnit> units = toParse.get(cunit.getJavaProject());
+							if( units == null )
+							{
+								units = new ArrayList<ICompilationUnit>();
+								toParse.put(cunit.getJavaProject(), units);
+							}
+							units.add(cunit);
+							continue;
+						}
+
+						analyseFile(file, cunit, cu, hash);
+					}
+				}
+
+				analysed.incrementAndGet();
+			}
+
+			for (List<ICompilationUnit> units : toParse.values())
 			{
-				CompilationUnit cu = ASTUtil.getAstOrParse(cunit, mon);
+				if( mon.isCanceled() )
+				{
+					return;
+				}
+
+				ChunkRequestor requestor = new ChunkRequestor(hashes);
+				ASTUtil.parse(units.toArray(new ICompilationUnit[units.size()]), requestor, mon);
+				analysed.addAndGet(units.size());
+
+				if( requestor.error != null )
+				{
+					throw requestor.error;
+				}
+			}
+		}
+
+		private final class ChunkRequestor extends ASTRequestor
+		{
+			private final Map<ICompilationUnit, byte[]> hashes;
+			private CoreException error;
+
+			ChunkRequestor(final Map<ICompilationUnit, byte[]> contentHashes)
+			{
+				hashes = contentHashes;
+			}
+
+			@Override
+			public void acceptAST(final ICompilationUnit source, final CompilationUnit ast)
+			{
+				if( error != null )
+				{
+					return;
+				}
 
-				MockASTVisitor visitor = new MockASTVisitor(cunit);
-				cu.accept(visitor);
+				try
+				{
+					currentFile = source.getElementName();
+					analyseFile((IFile) source.getResource(), source, ast, hashes.get(source));
+				}
+				catch (CoreException e)
+				{
+					error = e;
+				}
+			}
+		}
+
+		private static final class WorkerThreadFactory implements ThreadFactory
+		{
+			private final AtomicInteger count = new AtomicInteger();
 
-				CategorizedProblem[] probs = visitor.getProblems();
-				file.deleteMarkers(MARKER, true, IResource.DEPTH_INFINITE);
+			@Override
+			public Thread newThread(final Runnable r)
+			{
+				Thread t = new Thread(r, "JMockit analysis worker " + count.incrementAndGet());
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		}
 
-				for (CategorizedProblem prob : probs) //f.recordNewProblems(probs);
+		/**
+		 * @return hash of the saved file contents or {@code null} if they are not what gets analysed
+		 */
+		private static byte[] getContentHash(final IFile file, final ICompilationUnit cunit)
+		{
+			try
+			{
+				if( !cunit.hasUnsavedChanges() )
 				{
-					createProblemMarker(file, prob);
+					return AnalysisCache.hashContents(file);
 				}
 			}
+			catch (Exception e) // file out of sync, analyse without cache
+			{
+			}
+
+			return null;
 		}
 
-		private static void createProblemMarker(final IFile file, final CategorizedProblem prob) throws CoreException
+		public void analyseFile(final IFile file, final ICompilationUnit cunit, final CompilationUnit cu,
+				final byte[] contentHash) throws CoreException
 		{
-			IMarker marker = file.createMarker(MARKER);
-			marker.setAttribute(IMarker.TRANSIENT, true);
-			marker.setAttribute(IMarker.MESSAGE, prob.getMessage());
-			marker.setAttribute(IMarker.LINE_NUMBER, prob.getSourceLineNumber());
-			marker.setAttribute(IMarker.CHAR_START, prob.getSourceStart());
-			marker.setAttribute(IMarker.CHAR_END, prob.getSourceEnd());
-			marker.setAttribute(IMarker.SEVERITY, prob.isError()?SEVERITY_ERROR:SEVERITY_WARNING);
+			MockASTVisitor visitor = new MockASTVisitor(cunit);
+			cu.accept(visitor);
+
+			CategorizedProblem[] probs = visitor.getProblems();
+			Map<String, IPath> typeFiles = MockDependents.getTypeFiles(visitor.getMockedTypes());
+			Activator.getMockDependents().update(file, typeFiles);
+			Activator.getMockUsageIndex().update(file, visitor.getMockUsages());
+
+			if( Activator.isDebugging() )
+			{
+				Activator.info(file.getFullPath() + ": " + visitor.getBindingResolutions() + " binding resolutions");
+			}
+
+			if( contentHash != null && !visitor.hasUnresolvedMockedTypes() )
+			{
+				cache.put(file, contentHash, visitor.getMockedTypes(), typeFiles, probs);
+			}
+			else
+			{
+				cache.remove(file);
+			}
+
+			publishProblems(file, probs);
+		}
+
+		private void publishProblems(final IFile file, final CategorizedProblem[] probs)
+		{
+			results.add(new FileProblems(file, probs));
+		}
+
+		private static final class FileProblems
+		{
+			final IFile file;
+			final CategorizedProblem[] problems;
+
+			FileProblems(final IFile analysedFile, final CategorizedProblem[] probs)
+			{
+				file = analysedFile;
+				problems = probs;
+			}
 		}
 	}
 
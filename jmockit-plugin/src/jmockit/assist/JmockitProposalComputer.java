@@ -19,13 +19,19 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jmockit.assist.MemberTables.Member;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jdt.core.ICompilationUnit;
-import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.JavaModelException;
-import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.dom.IMethodBinding;
@@ -41,7 +47,6 @@ import org.eclipse.jdt.ui.text.java.IJavaCompletionProposalComputer;
 import org.eclipse.jdt.ui.text.java.IProblemLocation;
 import org.eclipse.jdt.ui.text.java.IQuickAssistProcessor;
 import org.eclipse.jdt.ui.text.java.JavaContentAssistInvocationContext;
-import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
 import org.eclipse.jface.text.contentassist.IContextInformation;
 import org.eclipse.jface.viewers.StyledString;
@@ -54,6 +59,8 @@ import org.eclipse.swt.graphics.Image;
 public class JmockitProposalComputer implements IJavaCompletionProposalComputer, IQuickAssistProcessor
 {
 	private String fErrorMessage;
+	/** candidates of the current completion session */
+	private Session session;
 
 	public JmockitProposalComputer()
 	{//
@@ -63,35 +70,42 @@ public class JmockitProposalComputer implements IJavaCompletionProposalComputer,
 	public final List<ICompletionProposal> computeCompletionProposals(final ContentAssistInvocationContext context,
 			final IProgressMonitor mon)
 	{
-		ITypeBinding mockType = null, paramType = null;
 		ICompilationUnit cunit = getCompilationUnit(context);
-		CompilationUnit astRoot = null;
 
-		if (cunit != null)
+		if (cunit == null)
 		{
-			astRoot = ASTUtil.getAstOrParse(cunit, mon);
+			return Collections.emptyList();
+		}
 
-			if( astRoot != null )
-			{
-				ASTNode node = NodeFinder.perform(astRoot, context.getInvocationOffset(), 1);
+		try
+		{
+			String prefix = context.computeIdentifierPrefix().toString();
+			int start = context.getInvocationOffset() - prefix.length();
 
-				mockType = MockUtil.getMockType(node);
-				paramType = findMockedTypeFromNode(node);
+			if( session == null || !session.isAt(cunit, start) ) // otherwise only the prefix has grown
+			{
+				endSession();
+				session = new Session(cunit, start);
+				session.collect(context.getInvocationOffset());
 			}
-		}
 
-		if ( paramType != null && mockType != null )
-		{
-			try
+			session.await(mon); // returns what is ready when the latency budget is used up
+
+			if( session.errorMessage != null )
 			{
-				return getProposals(context, paramType, cunit, mockType, astRoot.getAST());
+				fErrorMessage = session.errorMessage;
 			}
-			catch (Exception e)
+
+			if ( session.paramType != null )
 			{
-				fErrorMessage = e.getMessage();
-				Activator.log(e);
+				return getProposals(context, session, prefix);
 			}
 		}
+		catch (Exception e)
+		{
+			fErrorMessage = e.getMessage();
+			Activator.log(e);
+		}
 
 		return Collections.emptyList();
 	}
@@ -112,169 +126,93 @@ public class JmockitProposalComputer implements IJavaCompletionProposalComputer,
 	}
 
 	private List<ICompletionProposal> getProposals(final ContentAssistInvocationContext context,
-			final ITypeBinding paramType,
-			final ICompilationUnit cunit, final ITypeBinding mockType, final AST ast)
-					throws JavaModelException, BadLocationException
+			final Session state, final String prefix)
 	{
 		Collection<IJavaCompletionProposal> list = new ArrayList<IJavaCompletionProposal>();
-		String prefix = context.computeIdentifierPrefix().toString();
-		Set<String> existingMethods = ASTUtil.getMethodSignatures(mockType);
-
-		addClinitProposal(context, paramType, mockType, list, prefix);
+		ITypeBinding paramType = state.paramType;
 
-		addItFieldProposal(context, paramType, mockType, list, prefix);
-
-		for (final IMethodBinding meth : ASTUtil.getAllMethods(paramType, ast) )
+		if( !state.hasClinit )
 		{
-			String methodName = meth.getName();
+			addClinitProposal(context, paramType, list, prefix);
+		}
 
-			if( !methodName.startsWith(prefix) || "<clinit>".equals(methodName) )
-			{
-				continue;
-			}
+		if( !state.hasItField && "it".startsWith(prefix) )
+		{
+			addItFieldProposal(context, paramType, list, prefix);
+		}
 
-			String methSig = ASTUtil.getSig(meth);
-			methodName = meth.isConstructor()  ? MockUtil.CTOR : meth.getName();
-			if( existingMethods.contains(methSig) )
+		for (final Member member : state.getCandidates() )
+		{
+			if( !member.name.startsWith(prefix) )
 			{
 				continue;
 			}
 
-			try
-			{
-				MockMethodCompletionProposal proposal = createMockMethodProposal(context, paramType, cunit, prefix,
-						meth, methodName);
-
-				list.add(proposal);
-			}
-			catch (Exception e)
-			{
-				Activator.log(e);
-			}
-
+			list.add(new MockMethodCompletionProposal(state.cunit, member, paramType.getName(),
+					context.getInvocationOffset() - prefix.length(), prefix.length()));
 		}
 
 		return new ArrayList<ICompletionProposal>(list);
-					}
+	}
 
-	private void addClinitProposal(final ContentAssistInvocationContext context, final ITypeBinding paramType,
-			final ITypeBinding mockType, final Collection<IJavaCompletionProposal> list, final String prefix)
+	private static boolean hasMethod(final ITypeBinding type, final String name)
 	{
-		boolean hasClinit = false;
-		for(IMethodBinding method : mockType.getDeclaredMethods())
+		for(IMethodBinding method : type.getDeclaredMethods())
 		{
-			if( MockUtil.CLASSINIT.equals( method.getName() ) )
+			if( name.equals( method.getName() ) )
 			{
-				hasClinit = true;
-				break;
+				return true;
 			}
 		}
 
-		if( !hasClinit )
-		{
-			StyledString displayName = new StyledString(MockUtil.CLASSINIT + "() : void");
-			displayName.append(" - Mock class initialisers of '" + paramType.getName() +"'", QUALIFIER_STYLER);
-
-			StringBuffer buffer = new StringBuffer();
-			buffer.append("@Mock ");
-			buffer.append("void ").append(MockUtil.CLASSINIT).append("()");
-			buffer.append(" { }");
-			
-			IJavaCompletionProposal proposal
-			= new JavaCompletionProposal(buffer.toString(), context.getInvocationOffset()-prefix.length(), prefix.length(),
-					JavaPluginImages.get(JavaPluginImages.IMG_MISC_DEFAULT), displayName, MockMethodCompletionProposal.METHOD_RELEVANCE);
-
-			list.add( proposal );
-		}
+		return false;
 	}
 
-	private void addItFieldProposal(final ContentAssistInvocationContext context, final ITypeBinding paramType,
-			final ITypeBinding mockType, final Collection<IJavaCompletionProposal> list, final String prefix)
-					throws JavaModelException
-					{
-		boolean hasItField = false;
-		for(IVariableBinding field : mockType.getDeclaredFields())
+	private static boolean hasField(final ITypeBinding type, final String name)
+	{
+		for(IVariableBinding field : type.getDeclaredFields())
 		{
-			if( "it".equals( field.getName() ) )
+			if( name.equals( field.getName() ) )
 			{
-				hasItField = true;
-				break;
+				return true;
 			}
 		}
 
-		if( !hasItField && "it".startsWith(prefix) )
-		{
-			String relpacement = paramType.getName() + " it;";
-			Image image = JavaPluginImages.get(JavaPluginImages.IMG_FIELD_DEFAULT);
-
-			StyledString displayName = new StyledString("it : " + paramType.getName());
-			displayName.append(" - Access the mocked object 'it' of type '"
-					+ paramType.getName() +"'", QUALIFIER_STYLER);
-
-			IJavaCompletionProposal proposal
-			= new JavaCompletionProposal(relpacement, context.getInvocationOffset()-prefix.length(), prefix.length(),
-					image, displayName, MockMethodCompletionProposal.MAX_RELEVANCE);
-			list.add(proposal );
-		}
+		return false;
 	}
 
-	private MockMethodCompletionProposal createMockMethodProposal(final ContentAssistInvocationContext context,
-			final ITypeBinding paramType, final ICompilationUnit cunit,
-			final String prefix, final IMethodBinding meth, final String methodName) throws JavaModelException
+	private void addClinitProposal(final ContentAssistInvocationContext context, final ITypeBinding paramType,
+			final Collection<IJavaCompletionProposal> list, final String prefix)
 	{
-		String params = getParameters(meth);
-
-		StyledString displayName = new StyledString(methodName
-				+ "(" + params + ") : " + meth.getReturnType().getName() );
-
-		String desc = meth.isConstructor() ? "constructor" : "method";
-
-		displayName.append(" - Mock " + desc + " of '"
-				+ paramType.getName() +"'", QUALIFIER_STYLER);
-
-		String completionProposal = meth.getReturnType().getName() + " " + methodName;
+		StyledString displayName = new StyledString(MockUtil.CLASSINIT + "() : void");
+		displayName.append(" - Mock class initialisers of '" + paramType.getName() +"'", QUALIFIER_STYLER);
 
-		MockMethodCompletionProposal proposal = new MockMethodCompletionProposal(cunit, meth,
-				context.getInvocationOffset()-prefix.length(), prefix.length(), displayName,
-				completionProposal);
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("@Mock ");
+		buffer.append("void ").append(MockUtil.CLASSINIT).append("()");
+		buffer.append(" { }");
+		
+		IJavaCompletionProposal proposal
+		= new JavaCompletionProposal(buffer.toString(), context.getInvocationOffset()-prefix.length(), prefix.length(),
+				JavaPluginImages.get(JavaPluginImages.IMG_MISC_DEFAULT), displayName, MockMethodCompletionProposal.METHOD_RELEVANCE);
 
-		return proposal;
+		list.add( proposal );
 	}
 
-	private String getParameters(final IMethodBinding methBinding) throws JavaModelException
+	private void addItFieldProposal(final ContentAssistInvocationContext context, final ITypeBinding paramType,
+			final Collection<IJavaCompletionProposal> list, final String prefix)
 	{
-		IMethod meth = (IMethod) methBinding.getJavaElement();
-		
-		if( meth == null )
-			return "";
-		
-		String[] paramNames = meth.getParameterNames();
-
-		String params= "";
-		ITypeBinding[] paramTypes = methBinding.getParameterTypes();
-
-		for(int i = 0; i < paramTypes.length; i++)
-		{
-			String par = paramTypes[i].getName();
-			if( i != 0 )
-			{
-				params += ", ";
-			}
-
-			try
-			{
-				params += par; //Signature.getSimpleName( Signature.toString(par) );
-			}
-			catch(Exception e)
-			{
-				Activator.log(e);
-				params += par;
-			}
+		String relpacement = paramType.getName() + " it;";
+		Image image = JavaPluginImages.get(JavaPluginImages.IMG_FIELD_DEFAULT);
 
-			params += " " + paramNames[i];
-		}
+		StyledString displayName = new StyledString("it : " + paramType.getName());
+		displayName.append(" - Access the mocked object 'it' of type '"
+				+ paramType.getName() +"'", QUALIFIER_STYLER);
 
-		return params;
+		IJavaCompletionProposal proposal
+		= new JavaCompletionProposal(relpacement, context.getInvocationOffset()-prefix.length(), prefix.length(),
+				image, displayName, MockMethodCompletionProposal.MAX_RELEVANCE);
+		list.add(proposal );
 	}
 
 //	public static Set<String> getObjectMethods(final IJavaProject jproj) throws JavaModelException
@@ -300,11 +238,25 @@ public class JmockitProposalComputer implements IJavaCompletionProposalComputer,
 	@Override
 	public final void sessionEnded()
 	{
+		endSession();
 	}
 
 	@Override
 	public final void sessionStarted()
 	{
+		endSession();
+	}
+
+	/**
+	 * Stops collecting candidates nobody will ask for
+	 */
+	private void endSession()
+	{
+		if( session != null )
+		{
+			session.cancel();
+			session = null;
+		}
 	}
 
 	@Override
@@ -321,5 +273,155 @@ public class JmockitProposalComputer implements IJavaCompletionProposalComputer,
 	{
 		//System.err.println("get assist");
 		return new IJavaCompletionProposal[]{};
-	}	
+	}
+
+	/**
+	 * Candidates for the mock at the completion offset. They are collected in a background job in order of
+	 * relevance, and completion waits for them only up to the latency budget so that a large mocked
+	 * hierarchy doesn't block the popup. Later invocations in the session see the candidates collected since.
+	 */
+	private static final class Session implements MemberTables.Collector
+	{
+		/** keep well below the time after which JDT disables a slow proposal computer */
+		private static final long LATENCY_BUDGET = 1000;
+		private static final long POLL_INTERVAL = 20;
+
+		final ICompilationUnit cunit;
+		/** offset where the completed identifier starts */
+		final int start;
+		private final long deadline;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private Job job;
+
+		/** mocked type, {@code null} if not completing in a mock */
+		volatile ITypeBinding paramType;
+		volatile boolean hasClinit;
+		volatile boolean hasItField;
+		volatile String errorMessage;
+		/** methods that are not mocked yet, for any prefix */
+		private final List<Member> candidates = new ArrayList<Member>();
+		private Set<String> existingMethods;
+
+		Session(final ICompilationUnit workingCopy, final int identifierStart)
+		{
+			cunit = workingCopy;
+			start = identifierStart;
+			deadline = System.currentTimeMillis() + LATENCY_BUDGET;
+		}
+
+		boolean isAt(final ICompilationUnit workingCopy, final int identifierStart)
+		{
+			return cunit.equals(workingCopy) && start == identifierStart;
+		}
+
+		void collect(final int offset)
+		{
+			job = new Job("Collecting mock proposals")
+			{
+				@Override
+				protected IStatus run(final IProgressMonitor monitor)
+				{
+					try
+					{
+						collect(offset, monitor);
+					}
+					catch (OperationCanceledException e)
+					{
+						return Status.CANCEL_STATUS;
+					}
+					catch (Exception e)
+					{
+						errorMessage = e.getMessage();
+						Activator.log(e);
+					}
+					finally
+					{
+						done.countDown();
+					}
+
+					return Status.OK_STATUS;
+				}
+			};
+
+			job.setSystem(true);
+			job.setPriority(Job.INTERACTIVE);
+			job.schedule();
+		}
+
+		private void collect(final int offset, final IProgressMonitor mon) throws JavaModelException
+		{
+			CompilationUnit astRoot = ASTUtil.getAstOrParse(cunit, offset, mon);
+
+			if( astRoot == null )
+			{
+				return;
+			}
+
+			ASTNode node = NodeFinder.perform(astRoot, offset, 1);
+			ITypeBinding mockType = MockUtil.getMockType(node);
+			ITypeBinding mockedType = findMockedTypeFromNode(node);
+
+			if( mockedType == null || mockType == null )
+			{
+				return;
+			}
+
+			existingMethods = ASTUtil.getMethodSignatures(mockType);
+			hasClinit = hasMethod(mockType, MockUtil.CLASSINIT);
+			hasItField = hasField(mockType, "it");
+			paramType = mockedType; // 'it' and $clinit proposals are ready
+
+			Activator.getMemberTables().collectMembers(cunit.getJavaProject(), mockedType, astRoot.getAST(),
+					this, mon);
+		}
+
+		@Override
+		public void add(final List<Member> members)
+		{
+			List<Member> notMocked = new ArrayList<Member>(members.size());
+
+			for (Member member : members)
+			{
+				if( !"<clinit>".equals(member.method.getName()) && !existingMethods.contains(member.signature) )
+				{
+					notMocked.add(member);
+				}
+			}
+
+			synchronized (candidates)
+			{
+				candidates.addAll(notMocked);
+			}
+		}
+
+		void cancel()
+		{
+			if( job != null )
+			{
+				job.cancel();
+			}
+		}
+
+		List<Member> getCandidates()
+		{
+			synchronized (candidates)
+			{
+				return new ArrayList<Member>(candidates);
+			}
+		}
+
+		/**
+		 * Waits until all candidates are collected, the latency budget is used up or the monitor is canceled
+		 */
+		void await(final IProgressMonitor mon) throws InterruptedException
+		{
+			long remaining = deadline - System.currentTimeMillis();
+
+			while( remaining > 0 && (mon == null || !mon.isCanceled())
+					&& !done.await(Math.min(remaining, POLL_INTERVAL), TimeUnit.MILLISECONDS) )
+			{
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+	}
 }
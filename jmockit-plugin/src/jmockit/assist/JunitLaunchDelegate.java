@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import jmockit.assist.prefs.Prefs;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.variables.IDynamicVariable;
+import org.eclipse.core.variables.IDynamicVariableResolver;
+import org.eclipse.core.variables.IStringVariableManager;
+import org.eclipse.core.variables.IValueVariable;
+import org.eclipse.core.variables.VariablesPlugin;
+import org.eclipse.debug.core.DebugPlugin;
+import org.eclipse.debug.core.ILaunch;
+import org.eclipse.debug.core.ILaunchConfiguration;
+import org.eclipse.debug.core.ILaunchConfigurationType;
+import org.eclipse.debug.core.ILaunchDelegate;
+import org.eclipse.debug.core.ILaunchManager;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.junit.launcher.JUnitLaunchConfigurationDelegate;
+
+/**
+ * Launches JUnit tests with the JMockit jar of the project as javaagent JVM argument,
+ * and with a class data sharing archive if enabled.
+ * The argument is only added to the command line of the launch, launch configurations are never modified.
+ * <p>
+ * The delegate is shared by all launches. The arguments of a launch are worked out once in
+ * {@link #launch(ILaunchConfiguration, String, ILaunch, IProgressMonitor)}, which also claims or cleans up
+ * class data sharing archives, and are handed to {@link #getVMArguments(ILaunchConfiguration)} in a thread
+ * local as both run on the launching thread.
+ */
+public final class JunitLaunchDelegate extends JUnitLaunchConfigurationDelegate
+{
+	public static final String ID = "jmockit.assist.junitLaunchDelegate";
+	public static final String JUNIT_LAUNCH_TYPE = "org.eclipse.jdt.junit.launchconfig";
+
+	/** variable that earlier versions added to the VM arguments of launch configurations */
+	public static final String JMOCKIT_VAR_NAME = "jmockit_javaagent";
+
+	/** arguments added to the launch running on the thread */
+	private static final ThreadLocal<String> LAUNCH_ARGS = new ThreadLocal<String>();
+
+	@Override
+	public void launch(final ILaunchConfiguration configuration, final String mode, final ILaunch launch,
+			final IProgressMonitor monitor) throws CoreException
+	{
+		LAUNCH_ARGS.set(getMockitArguments(configuration, launch));
+
+		try
+		{
+			super.launch(configuration, mode, launch, monitor);
+		}
+		catch (CoreException e)
+		{
+			Activator.getClassDataSharing().launchesTerminated(new ILaunch[]{launch}); // nothing was started
+			throw e;
+		}
+		finally
+		{
+			LAUNCH_ARGS.remove();
+		}
+	}
+
+	@Override
+	public String getVMArguments(final ILaunchConfiguration configuration) throws CoreException
+	{
+		String vmargs = super.getVMArguments(configuration);
+		String args = LAUNCH_ARGS.get();
+
+		if( args == null ) // not launching, e.g. showing the command line
+		{
+			args = getMockitArguments(configuration, null);
+		}
+
+		return args.length() == 0 ? vmargs : vmargs + " " + args;
+	}
+
+	/**
+	 * @param launch launch being started, {@code null} to leave class data sharing out
+	 * @return javaagent and class data sharing arguments, empty if there are none to add
+	 */
+	private String getMockitArguments(final ILaunchConfiguration configuration, final ILaunch launch)
+			throws CoreException
+	{
+		if( !Activator.getPrefStore().getBoolean(Prefs.PROP_ADD_JAVAAGENT)
+				|| super.getVMArguments(configuration).contains("-javaagent") )
+		{
+			return "";
+		}
+
+		IJavaProject jproj = getJavaProject(configuration);
+		File jar = getMockitJar(jproj);
+
+		if( jar == null )
+		{
+			return "";
+		}
+
+		String args = "-javaagent:\"" + jar.getPath() + "\"";
+
+		if( launch != null && Activator.getPrefStore().getBoolean(Prefs.PROP_CLASS_DATA_SHARING) )
+		{
+			String cdsArgs = Activator.getClassDataSharing().startLaunch(launch, jproj.getElementName(),
+					Activator.getArchiveDirectory(), getVMInstall(configuration), getClasspath(configuration), jar);
+
+			if( cdsArgs.length() != 0 )
+			{
+				args += " " + cdsArgs;
+			}
+		}
+
+		return args;
+	}
+
+	/**
+	 * @return JMockit jar on the classpath of the project or {@code null} if there is none
+	 */
+	static File getMockitJar(final IJavaProject jproj) throws CoreException
+	{
+		IType mockitType = jproj == null ? null : Activator.getMockitClasspath().findMockitType(jproj);
+
+		if (mockitType != null)
+		{
+			IPackageFragmentRoot root = (IPackageFragmentRoot) mockitType
+					.getAncestor(IJavaElement.PACKAGE_FRAGMENT_ROOT);
+
+			if (root != null && root.isArchive()) // its a jar
+			{
+				String jarPath = root.getPath().toOSString();
+				if (root.getResource() != null)
+				{
+					jarPath = root.getResource().getRawLocation().toString();
+				}
+
+				if (new File(jarPath).exists())
+				{
+					return new File(jarPath);
+				}
+
+				Activator.log(new FileNotFoundException(jarPath));
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Makes this delegate the one used for JUnit launches, unless the user has chosen another one,
+	 * and removes the javaagent variable that earlier versions kept in the workspace
+	 */
+	static void install()
+	{
+		try
+		{
+			ILaunchManager launchMan = DebugPlugin.getDefault().getLaunchManager();
+			ILaunchConfigurationType type = launchMan.getLaunchConfigurationType(JUNIT_LAUNCH_TYPE);
+
+			for (String mode : new String[]{ILaunchManager.RUN_MODE, ILaunchManager.DEBUG_MODE})
+			{
+				Set<String> modes = new HashSet<String>(Collections.singleton(mode));
+
+				if( type == null || type.getPreferredDelegate(modes) != null )
+				{
+					continue;
+				}
+
+				for (ILaunchDelegate delegate : type.getDelegates(modes))
+				{
+					if( ID.equals(delegate.getId()) )
+					{
+						type.setPreferredDelegate(modes, delegate);
+					}
+				}
+			}
+
+			IStringVariableManager varMan = VariablesPlugin.getDefault().getStringVariableManager();
+			IValueVariable var = varMan.getValueVariable(JMOCKIT_VAR_NAME);
+
+			if( var != null ) // resolved by LegacyAgentVariable instead
+			{
+				varMan.removeVariables(new IValueVariable[]{var});
+			}
+		}
+		catch (CoreException e)
+		{
+			Activator.log(e);
+		}
+	}
+
+	/**
+	 * Resolves the variable left in launch configurations by earlier versions to nothing,
+	 * the delegate adds the javaagent argument itself
+	 */
+	public static final class LegacyAgentVariable implements IDynamicVariableResolver
+	{
+		@Override
+		public String resolveValue(final IDynamicVariable variable, final String argument)
+		{
+			return "";
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.internal.corext.dom.Bindings;
+
+/**
+ * Methods that can be mocked in a type, kept across completion sessions so that repeated
+ * completions in mocks of the same (large) type don't collect and sort its hierarchy again.
+ * A table is dropped when the type or one of its super types changes, or the classpath changes.
+ */
+@SuppressWarnings("restriction")
+final class MemberTables implements IElementChangedListener
+{
+	private static final int MAX_TABLES = 8;
+
+	private static final int CLASSPATH_CHANGED = IJavaElementDelta.F_CLASSPATH_CHANGED
+			| IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED | IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED;
+
+	private final Map<String, Table> tables = new LinkedHashMap<String, Table>(MAX_TABLES, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Table> eldest)
+		{
+			return size() > MAX_TABLES;
+		}
+	};
+
+	/**
+	 * Passes the methods of the type to the collector in order of relevance: declared methods, then those
+	 * of each super type and of Object for interfaces. Members already passed in an earlier stage are not
+	 * passed again. A complete table is kept for the next time.
+	 */
+	public void collectMembers(final IJavaProject project, final ITypeBinding type, final AST ast,
+			final Collector collector, final IProgressMonitor mon)
+	{
+		String key = project.getElementName() + '|' + type.getKey();
+		Table table;
+
+		synchronized (tables)
+		{
+			table = tables.get(key);
+		}
+
+		if( table != null )
+		{
+			collector.add(table.members);
+			return;
+		}
+
+		table = new Table(type);
+		table.addStage(type.getDeclaredMethods(), collector);
+
+		if( type.isInterface() )
+		{
+			for (ITypeBinding superType : Bindings.getAllSuperTypes(type))
+			{
+				checkCanceled(mon);
+				table.addStage(superType.getDeclaredMethods(), collector);
+			}
+
+			checkCanceled(mon);
+			table.addStage(ast.resolveWellKnownType(Object.class.getName()).getDeclaredMethods(), collector);
+		}
+
+		synchronized (tables)
+		{
+			tables.put(key, table);
+		}
+	}
+
+	private static void checkCanceled(final IProgressMonitor mon)
+	{
+		if( mon != null && mon.isCanceled() )
+		{
+			throw new OperationCanceledException();
+		}
+	}
+
+	@Override
+	public void elementChanged(final ElementChangedEvent event)
+	{
+		synchronized (tables)
+		{
+			if( !tables.isEmpty() )
+			{
+				visit(event.getDelta());
+			}
+		}
+	}
+
+	private void visit(final IJavaElementDelta delta)
+	{
+		IJavaElement element = delta.getElement();
+
+		switch (element.getElementType())
+		{
+		case IJavaElement.COMPILATION_UNIT:
+		case IJavaElement.CLASS_FILE:
+			removeDependents(element.getPrimaryElement());
+			return;
+		case IJavaElement.JAVA_PROJECT:
+		case IJavaElement.PACKAGE_FRAGMENT_ROOT:
+			if( (delta.getFlags() & CLASSPATH_CHANGED) != 0 )
+			{
+				tables.clear();
+				return;
+			}
+			break;
+		default:
+			break;
+		}
+
+		for (IJavaElementDelta child : delta.getAffectedChildren())
+		{
+			visit(child);
+		}
+	}
+
+	private void removeDependents(final IJavaElement changed)
+	{
+		for (Iterator<Table> it = tables.values().iterator(); it.hasNext();)
+		{
+			if( it.next().dependencies.contains(changed) )
+			{
+				it.remove();
+			}
+		}
+	}
+
+	static final class Member
+	{
+		final IMethodBinding method;
+		/** method name, {@link MockUtil#CTOR} for constructors */
+		final String name;
+		final String signature;
+		private String[] parameterNames;
+
+		Member(final IMethodBinding meth)
+		{
+			method = meth;
+			name = meth.isConstructor() ? MockUtil.CTOR : meth.getName();
+			signature = ASTUtil.getSig(meth);
+		}
+
+		/**
+		 * Looked up on first use, as for binary types this may read attached source or Javadoc
+		 *
+		 * @return parameter names or {@code null} if the method has no Java element
+		 */
+		public synchronized String[] getParameterNames() throws JavaModelException
+		{
+			if( parameterNames == null )
+			{
+				IMethod meth = (IMethod) method.getJavaElement();
+
+				if( meth != null )
+				{
+					parameterNames = meth.getParameterNames();
+				}
+			}
+
+			return parameterNames;
+		}
+	}
+
+	/**
+	 * Receives the members of a type in stages
+	 */
+	interface Collector
+	{
+		void add(List<Member> members);
+	}
+
+	private static final class Table
+	{
+		final List<Member> members = new ArrayList<Member>();
+		/** class files and compilation units of the type and its super types */
+		final Set<IJavaElement> dependencies = new HashSet<IJavaElement>();
+		private final Set<String> signatures = new HashSet<String>();
+
+		Table(final ITypeBinding type)
+		{
+			for (ITypeBinding superType : ASTUtil.getTypeHierarchy(type))
+			{
+				IJavaElement element = superType.getJavaElement();
+
+				if( element != null && element.getOpenable() != null )
+				{
+					dependencies.add(((IJavaElement) element.getOpenable()).getPrimaryElement());
+				}
+			}
+		}
+
+		void addStage(final IMethodBinding[] methods, final Collector collector)
+		{
+			Map<String, Member> stage = new TreeMap<String, Member>(); // by signature
+
+			for (IMethodBinding meth : methods)
+			{
+				if( meth.isConstructor() && TypeNames.is(meth.getDeclaringClass(), Object.class.getName()) )
+				{
+					continue;
+				}
+
+				Member member = new Member(meth);
+
+				if( signatures.add(member.signature) ) // declared methods take precedence
+				{
+					stage.put(member.signature, member);
+				}
+			}
+
+			List<Member> stageMembers = new ArrayList<Member>(stage.values());
+			members.addAll(stageMembers);
+			collector.add(Collections.unmodifiableList(stageMembers));
+		}
+	}
+}
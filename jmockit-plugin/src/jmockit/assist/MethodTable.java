@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+
+/**
+ * Methods of a type indexed by name and erased parameter types, so that finding the real method
+ * of a mock method is a single lookup. Constructors are indexed as {@link MockUtil#CTOR}.
+ * Interfaces include the methods of their super interfaces, classes only their declared methods.
+ * <p>
+ * For a parameterized type, like the one in {@code MockUp<Dao<Item>>}, methods are indexed both with
+ * the type arguments substituted ({@code save(Item)}) and as declared ({@code save(Object)} for
+ * {@code save(T)}), as a mock method can use either.
+ * <p>
+ * Tables are kept in a {@link Cache} owned by whoever visits the AST the bindings come from,
+ * so they are dropped together with the AST once its file has been checked.
+ */
+final class MethodTable
+{
+	private static final String INVOCATION = "mockit.Invocation";
+
+	private final Map<String, IMethodBinding> methods = new HashMap<String, IMethodBinding>();
+
+	private MethodTable(final ITypeBinding type)
+	{
+		if( type.isInterface() )
+		{
+			addHierarchy(type, new HashSet<String>());
+		}
+		else
+		{
+			addDeclaredMethods(type);
+		}
+	}
+
+	/**
+	 * @param name method name or {@link MockUtil#CTOR}
+	 * @param paramTypes parameter types, may start with mockit.Invocation
+	 * @return method with the same name and erased parameter types or {@code null}
+	 */
+	public IMethodBinding find(final String name, final ITypeBinding[] paramTypes)
+	{
+		int first = 0;
+		if( paramTypes.length != 0 && TypeNames.is(paramTypes[0], INVOCATION) )
+		{
+			first = 1;
+		}
+
+		return methods.get(getKey(name, paramTypes, first));
+	}
+
+	private void addHierarchy(final ITypeBinding type, final Set<String> visited)
+	{
+		if( !visited.add(type.getErasure().getKey()) )
+		{
+			return;
+		}
+
+		addDeclaredMethods(type);
+
+		if( type.getSuperclass() != null )
+		{
+			addHierarchy(type.getSuperclass(), visited);
+		}
+
+		for (ITypeBinding superInterface : type.getInterfaces())
+		{
+			addHierarchy(superInterface, visited);
+		}
+	}
+
+	private void addDeclaredMethods(final ITypeBinding type)
+	{
+		for (IMethodBinding meth : type.getDeclaredMethods())
+		{
+			String name = meth.isConstructor() ? MockUtil.CTOR : meth.getName();
+
+			add(getKey(name, meth.getParameterTypes(), 0), meth);
+
+			if( meth.getMethodDeclaration() != meth ) // type arguments substituted
+			{
+				add(getKey(name, meth.getMethodDeclaration().getParameterTypes(), 0), meth);
+			}
+		}
+	}
+
+	private void add(final String key, final IMethodBinding meth)
+	{
+		if( !methods.containsKey(key) ) // methods of sub types take precedence
+		{
+			methods.put(key, meth);
+		}
+	}
+
+	private static String getKey(final String name, final ITypeBinding[] paramTypes, final int first)
+	{
+		StringBuilder key = new StringBuilder(name).append('(');
+
+		for (int i = first; i < paramTypes.length; i++)
+		{
+			key.append(paramTypes[i].getErasure().getKey()).append(',');
+		}
+
+		return key.append(')').toString();
+	}
+
+	/**
+	 * Method tables of the types looked up in one AST
+	 */
+	static final class Cache
+	{
+		private final Map<ITypeBinding, MethodTable> tables = new HashMap<ITypeBinding, MethodTable>();
+
+		public MethodTable get(final ITypeBinding type)
+		{
+			MethodTable table = tables.get(type);
+			if( table == null )
+			{
+				table = new MethodTable(type);
+				tables.put(type, table);
+			}
+
+			return table;
+		}
+	}
+}
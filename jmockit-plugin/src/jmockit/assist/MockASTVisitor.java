@@ -14,16 +14,24 @@ package jmockit.assist;
 import static org.eclipse.jdt.core.dom.Modifier.isPrivate;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.compiler.CategorizedProblem;
 import org.eclipse.jdt.core.compiler.IProblem;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
 import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.BooleanLiteral;
+import org.eclipse.jdt.core.dom.CharacterLiteral;
 import org.eclipse.jdt.core.dom.ClassInstanceCreation;
 import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.EnumDeclaration;
+import org.eclipse.jdt.core.dom.Expression;
 import org.eclipse.jdt.core.dom.ExpressionStatement;
 import org.eclipse.jdt.core.dom.FieldDeclaration;
 import org.eclipse.jdt.core.dom.IBinding;
@@ -33,9 +41,15 @@ import org.eclipse.jdt.core.dom.IVariableBinding;
 import org.eclipse.jdt.core.dom.ImportDeclaration;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.core.dom.MethodInvocation;
+import org.eclipse.jdt.core.dom.Name;
+import org.eclipse.jdt.core.dom.NullLiteral;
+import org.eclipse.jdt.core.dom.NumberLiteral;
 import org.eclipse.jdt.core.dom.SimpleName;
+import org.eclipse.jdt.core.dom.StringLiteral;
+import org.eclipse.jdt.core.dom.ThisExpression;
 import org.eclipse.jdt.core.dom.Type;
 import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.eclipse.jdt.core.dom.TypeLiteral;
 import org.eclipse.jdt.internal.compiler.problem.DefaultProblem;
 import org.eclipse.jdt.internal.compiler.problem.ProblemSeverities;
 
@@ -47,6 +61,18 @@ public final class MockASTVisitor extends ASTVisitor
 	private boolean hasMockitImport = false;
 
 	private final List<CategorizedProblem> probs = new ArrayList<CategorizedProblem>();
+	private final Set<ITypeBinding> mockedTypes = new HashSet<ITypeBinding>();
+	private final List<MockUsageIndex.Usage> usages = new ArrayList<MockUsageIndex.Usage>();
+	/** method tables of the mocked types, dropped with this visitor and its AST */
+	private final MethodTable.Cache methodTables = new MethodTable.Cache();
+
+	/** types being visited, innermost on top */
+	private final LinkedList<TypeContext> types = new LinkedList<TypeContext>();
+	/** methods being visited, innermost on top */
+	private final LinkedList<MethodContext> methods = new LinkedList<MethodContext>();
+
+	private int bindingResolutions = 0;
+	private boolean unresolvedMockedTypes = false;
 
 	public MockASTVisitor(final ICompilationUnit cunitPar)
 	{
@@ -69,26 +95,32 @@ public final class MockASTVisitor extends ASTVisitor
 	@Override
 	public boolean visit(final MethodDeclaration node)
 	{
-		IMethodBinding meth = node.resolveBinding();
-		ITypeBinding mockedType = MockUtil.findMockedType(node, meth); // new MockUp< MockedType >
+		MethodContext method = enterMethod(node);
+		IMethodBinding meth = method.binding;
+		ITypeBinding mockedType = method.type.mockedType; // new MockUp< MockedType >
 
-		if ( mockedType != null )
+		if ( mockedType != null && meth != null )
 		{
-			boolean hasMockAnn = MockUtil.isMockMethod(meth);
 			boolean isClassInitMock = MockUtil.isClassInitializerMock(meth);
-			boolean methodExists = isClassInitMock || findRealMethod(node, meth, mockedType) != null;
+			IMethodBinding realMethod = isClassInitMock ? null : findRealMethod(node, meth, mockedType);
+			boolean methodExists = isClassInitMock || realMethod != null;
+
+			if( method.isMock && realMethod != null )
+			{
+				addUsage(mockedType, realMethod, meth);
+			}
 	
-			if (!hasMockAnn && methodExists )
+			if (!method.isMock && methodExists )
 			{
 				addMarker(node.getName(), "Mocked method missing @Mock annotation", false);
 			}
 
-			if (hasMockAnn && !methodExists )
+			if (method.isMock && !methodExists )
 			{
 				addMarker(node.getName(), "Mocked real method not found in type", true);
 			}
 
-			if (hasMockAnn && methodExists && isPrivate(meth.getModifiers()))
+			if (method.isMock && methodExists && isPrivate(meth.getModifiers()))
 			{
 				addMarker(node.getName(), "Mocked method should not be private", true);
 			}
@@ -97,13 +129,19 @@ public final class MockASTVisitor extends ASTVisitor
 		return true;
 	}
 
+	@Override
+	public void endVisit(final MethodDeclaration node)
+	{
+		methods.pop();
+	}
+
 	public IMethodBinding findRealMethod(final MethodDeclaration node,
 			final IMethodBinding meth, final ITypeBinding mockedType)
 	{
 		IMethodBinding origMethod = null;
 
 		if (mockedType != null)
-			origMethod = MockUtil.findRealMethodInType(mockedType, new InvocationFilter(meth), node.getAST());
+			origMethod = MockUtil.findRealMethodInType(mockedType, meth, node, methodTables);
 
 		return origMethod;
 	}
@@ -111,25 +149,24 @@ public final class MockASTVisitor extends ASTVisitor
 	@Override
 	public boolean visit(final AnonymousClassDeclaration node)
 	{
-		ITypeBinding binding = node.resolveBinding();
+		TypeContext type = enterType(node);
+		ASTNode parent = node.getParent();
 
-		if ( MockUtil.isMockUpType(binding.getSuperclass()) ) // new MockUp< type >
+		if ( type.mockedType != null && type.mockedType.isInterface()
+				&& parent instanceof ClassInstanceCreation ) // creating interface mock
 		{
-			ITypeBinding typePar = ASTUtil.getFirstTypeParameter(node);
-			ASTNode parent = node.getParent();
-
-			if (parent instanceof ClassInstanceCreation && typePar.isInterface()  ) // creating interface mock
-			{
-				ClassInstanceCreation creation = (ClassInstanceCreation) parent;
-
-				visitMockUpCreation(creation);
-			}
-
+			visitMockUpCreation((ClassInstanceCreation) parent);
 		}
 
 		return true;
 	}
 
+	@Override
+	public void endVisit(final AnonymousClassDeclaration node)
+	{
+		types.pop();
+	}
+
 	public void visitMockUpCreation(final ClassInstanceCreation creation)
 	{
 		ASTNode gparent = creation.getParent();
@@ -140,9 +177,8 @@ public final class MockASTVisitor extends ASTVisitor
 		if (gparent instanceof MethodInvocation) // method invocation follows
 		{
 			MethodInvocation inv = (MethodInvocation) gparent;
-			IMethodBinding meth = inv.resolveMethodBinding();
 
-			if ( MockUtil.GET_INST.equals(meth.getName()))
+			if ( isGetMockInstance(inv) )
 			{
 				invokesGetInst = true;
 				if (gparent.getParent() instanceof ExpressionStatement)
@@ -162,16 +198,30 @@ public final class MockASTVisitor extends ASTVisitor
 	@Override
 	public boolean visit(final MethodInvocation node)
 	{
+		boolean checked = isGetMockInstance(node) || isCallOnIt(node); // decided without resolving bindings
+
+		if( !checked && !hasNestedCode(node) ) // nothing to visit in its children either way
+		{
+			return false;
+		}
+
 		IMethodBinding meth = node.resolveMethodBinding();
+		bindingResolutions++;
 
-		if (meth == null)
+		if (meth == null) // children of unresolved calls are not visited
 		{
 			return false;
 		}
 
+		if( !checked )
+		{
+			return true;
+		}
+
 		if ( MockUtil.isMockUpType(meth.getDeclaringClass()) && MockUtil.GET_INST.equals(meth.getName()))
 		{
 			ITypeBinding returnType = node.resolveTypeBinding();
+			bindingResolutions++;
 
 			if (!returnType.isInterface())
 			{
@@ -186,25 +236,73 @@ public final class MockASTVisitor extends ASTVisitor
 		return true;
 	}
 
+	/**
+	 * @return false if the receiver and arguments are only names and literals,
+	 * so there are no calls or anonymous classes in them
+	 */
+	private static boolean hasNestedCode(final MethodInvocation node)
+	{
+		if( node.getExpression() != null && !isLeaf(node.getExpression()) )
+		{
+			return true;
+		}
+
+		for (Object arg : node.arguments())
+		{
+			if( !isLeaf((Expression) arg) )
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isLeaf(final Expression expr)
+	{
+		return expr instanceof Name || expr instanceof ThisExpression || expr instanceof NumberLiteral
+				|| expr instanceof StringLiteral || expr instanceof CharacterLiteral || expr instanceof BooleanLiteral
+				|| expr instanceof NullLiteral || expr instanceof TypeLiteral;
+	}
+
+	private static boolean isGetMockInstance(final MethodInvocation node)
+	{
+		return MockUtil.GET_INST.equals(node.getName().getIdentifier());
+	}
+
+	/**
+	 * @return true for calls like it.method() inside a @Mock method
+	 */
+	private boolean isCallOnIt(final MethodInvocation node)
+	{
+		MethodContext method = methods.peek();
+
+		return method != null && method.isMock && node.getExpression() instanceof SimpleName
+				&& "it".equals(((SimpleName) node.getExpression()).getIdentifier());
+	}
+
 	// consider visit(FieldAccess )
 	private void visitItFieldInvocation(final MethodInvocation node, final IMethodBinding meth)
 	{
-		if (node.getExpression() instanceof SimpleName)
+		MethodContext method = methods.peek();
+
+		if (method != null && method.isMock && node.getExpression() instanceof SimpleName)
 		{
 			SimpleName var = (SimpleName) node.getExpression();
 			String varName = var.getIdentifier();
 
 			IBinding exprBinding = var.resolveBinding();
+			bindingResolutions++;
 
 			if ( "it".equals(varName) && exprBinding instanceof IVariableBinding ) // call on 'it' field
 			{
 				IVariableBinding varBinding = (IVariableBinding) exprBinding;
-				IMethodBinding mockMethod = getSurroundingMockMethod(node);
+				IMethodBinding mockMethod = method.binding;
 
-				if( mockMethod != null && varBinding.isField() && mockMethod.isSubsignature(meth)
+				if( varBinding.isField() && mockMethod.isSubsignature(meth)
 						&& varBinding.getDeclaringClass().equals(mockMethod.getDeclaringClass()) )
 				{
-					ITypeBinding mockedType = MockUtil.findMockedType(node);
+					ITypeBinding mockedType = method.type.mockedType;
 
 					if( mockedType.equals(varBinding.getType()) // field type is correct mocked type
 							&& !MockUtil.isReentrantMockMethod(mockMethod) )
@@ -218,26 +316,6 @@ public final class MockASTVisitor extends ASTVisitor
 		}
 	}
 
-	private IMethodBinding getSurroundingMockMethod(final MethodInvocation node)
-	{
-		MethodDeclaration surroundingMeth = ASTUtil.findAncestor(node, MethodDeclaration.class);
-		IMethodBinding mockMethod = null;
-
-		if (surroundingMeth != null)
-		{
-			mockMethod = surroundingMeth.resolveBinding();
-		}
-
-		if( mockMethod != null && MockUtil.isMockMethod(mockMethod) )
-		{
-			return mockMethod;
-		}
-		else
-		{
-			return null;
-		}
-	}
-
 	@Override
 	public boolean visit(final FieldDeclaration node)
 	{
@@ -269,9 +347,102 @@ public final class MockASTVisitor extends ASTVisitor
 	@Override
 	public boolean visit(final TypeDeclaration node)
 	{
+		enterType(node);
 		return hasMockitImport;
 	}
 
+	@Override
+	public void endVisit(final TypeDeclaration node)
+	{
+		types.pop();
+	}
+
+	@Override
+	public boolean visit(final EnumDeclaration node)
+	{
+		enterType(node);
+		return true;
+	}
+
+	@Override
+	public void endVisit(final EnumDeclaration node)
+	{
+		types.pop();
+	}
+
+	/**
+	 * Works out once per type whether it is a mock and which type it mocks,
+	 * so that methods and invocations of other types resolve no bindings
+	 */
+	private TypeContext enterType(final ASTNode node)
+	{
+		ITypeBinding mockedType = null;
+		ITypeBinding binding = null;
+
+		if( node instanceof AnonymousClassDeclaration )
+		{
+			binding = ((AnonymousClassDeclaration) node).resolveBinding();
+			bindingResolutions++;
+
+			if( binding != null && MockUtil.isMockUpType(binding.getSuperclass()) ) // new MockUp< type >
+			{
+				mockedType = ASTUtil.getFirstTypeParameter(node);
+				unresolvedMockedTypes |= mockedType == null || mockedType.isRecovered();
+			}
+		}
+		else if( node instanceof TypeDeclaration && mayBeMock((TypeDeclaration) node) )
+		{
+			TypeDeclaration typeDec = (TypeDeclaration) node;
+			binding = typeDec.resolveBinding();
+			bindingResolutions++;
+
+			if( binding != null && MockUtil.isMockUpType(binding.getSuperclass()) )
+			{
+				mockedType = ASTUtil.getFirstTypeParameter(typeDec);
+				unresolvedMockedTypes |= mockedType == null || mockedType.isRecovered();
+			}
+			else if( binding != null && MockUtil.hasMockClass(binding) )
+			{
+				mockedType = MockUtil.findRealClassType(binding);
+				unresolvedMockedTypes |= mockedType == null || mockedType.isRecovered();
+			}
+		}
+
+		if( mockedType != null )
+		{
+			mockedTypes.add(mockedType);
+			addUsage(mockedType, null, binding);
+		}
+
+		TypeContext type = new TypeContext(mockedType);
+		types.push(type);
+		return type;
+	}
+
+	/**
+	 * @return false if the declaration can't be a MockUp subclass or a @MockClass
+	 */
+	private static boolean mayBeMock(final TypeDeclaration node)
+	{
+		return node.getSuperclassType() != null || !node.modifiers().isEmpty();
+	}
+
+	private MethodContext enterMethod(final MethodDeclaration node)
+	{
+		TypeContext type = types.isEmpty() ? TypeContext.NONE : types.peek();
+		IMethodBinding meth = null;
+
+		if( type.mockedType != null )
+		{
+			meth = node.resolveBinding();
+			bindingResolutions++;
+		}
+
+		MethodContext method = new MethodContext(type, meth, MockUtil.isMockMethod(meth));
+		methods.push(method);
+		return method;
+	}
+
 	@Override
 	public boolean visit(final ImportDeclaration node)
 	{
@@ -280,36 +451,83 @@ public final class MockASTVisitor extends ASTVisitor
 		return true;
 	}
 
+	private void addUsage(final ITypeBinding mockedType, final IMethodBinding realMethod, final IBinding mock)
+	{
+		if( mockedType.getErasure().getQualifiedName().length() != 0 ) // local types can't be looked up
+		{
+			usages.add(new MockUsageIndex.Usage(icunit.getPath(), mockedType, realMethod, mock));
+		}
+	}
+
 	private void addMarker(final ASTNode node, final String msg, final boolean isError)
 	{
 		try
 		{
 			int start = node.getStartPosition();
 			int endChar = start + node.getLength();
-			int line = cu.getLineNumber(start);
-			int col = cu.getColumnNumber(start);
-			int id = IProblem.TypeRelated;
 			String filePath = icunit.getPath().toOSString();
-			String[] args = new String[]{};
 
-			int severity = isError ? ProblemSeverities.Error : ProblemSeverities.Warning;
+			probs.add(createProblem(filePath, msg, isError, start, endChar, cu));
+		}
+		catch (Exception e)
+		{
+			Activator.log(e);
+		}
+	}
+
+	static CategorizedProblem createProblem(final String filePath, final String msg, final boolean isError,
+			final int start, final int endChar, final CompilationUnit cu)
+	{
+		int line = cu.getLineNumber(start);
+		int col = cu.getColumnNumber(start);
+		int id = IProblem.TypeRelated;
+		String[] args = new String[]{};
+
+		int severity = isError ? ProblemSeverities.Error : ProblemSeverities.Warning;
 
-			CategorizedProblem problem = new DefaultProblem(filePath.toCharArray(), msg, id,
-					args, severity, start, endChar, line, col)
+		return new DefaultProblem(filePath.toCharArray(), msg, id,
+				args, severity, start, endChar, line, col)
+		{
+			@Override
+			public String getMarkerType()
 			{
-				@Override
-				public String getMarkerType()
-				{
-					return JMockitCompilationParticipant.MARKER;
-				}
-			};
+				return JMockitCompilationParticipant.MARKER;
+			}
+		};
+	}
+
+	/**
+	 * Checks only the given node of the compilation unit
+	 */
+	@SuppressWarnings("unchecked")
+	public void visitSubtree(final CompilationUnit unit, final ASTNode node)
+	{
+		cu = unit;
 
-			probs.add(problem);
+		for (ImportDeclaration imp : (List<ImportDeclaration>) unit.imports())
+		{
+			visit(imp);
 		}
-		catch (Exception e)
+
+		LinkedList<ASTNode> ancestors = new LinkedList<ASTNode>();
+		for (ASTNode parent = node.getParent(); parent != null; parent = parent.getParent())
 		{
-			Activator.log(e);
+			ancestors.addFirst(parent);
+		}
+
+		for (ASTNode ancestor : ancestors) // contexts the node is nested in
+		{
+			if( ancestor instanceof MethodDeclaration )
+			{
+				enterMethod((MethodDeclaration) ancestor);
+			}
+			else if( ancestor instanceof AbstractTypeDeclaration || ancestor instanceof AnonymousClassDeclaration )
+			{
+				enterType(ancestor);
+			}
 		}
+
+		node.accept(this);
 	}
 
 	public CategorizedProblem[] getProblems()
@@ -317,4 +535,64 @@ public final class MockASTVisitor extends ASTVisitor
 		return probs.toArray(new CategorizedProblem[]{});
 	}
 
-}
\ No newline at end of file
+	/**
+	 * @return number of AST nodes whose bindings were resolved by the visitor
+	 */
+	public int getBindingResolutions()
+	{
+		return bindingResolutions;
+	}
+
+	/**
+	 * @return types mocked in the visited code. Problems depend on their declarations.
+	 */
+	public Set<ITypeBinding> getMockedTypes()
+	{
+		return mockedTypes;
+	}
+
+	/**
+	 * @return true if a mock's mocked type could not be resolved, so problems may change once it is created
+	 */
+	public boolean hasUnresolvedMockedTypes()
+	{
+		return unresolvedMockedTypes;
+	}
+
+	/**
+	 * @return mock types and @Mock methods of the visited code with the types and methods they mock
+	 */
+	public List<MockUsageIndex.Usage> getMockUsages()
+	{
+		return usages;
+	}
+
+	private static final class TypeContext
+	{
+		static final TypeContext NONE = new TypeContext(null);
+
+		/** type mocked by this type or {@code null} if it is not a mock */
+		final ITypeBinding mockedType;
+
+		TypeContext(final ITypeBinding mocked)
+		{
+			mockedType = mocked;
+		}
+	}
+
+	private static final class MethodContext
+	{
+		final TypeContext type;
+		/** resolved only for methods of mock types */
+		final IMethodBinding binding;
+		/** has @Mock annotation */
+		final boolean isMock;
+
+		MethodContext(final TypeContext declaringType, final IMethodBinding meth, final boolean hasMockAnn)
+		{
+			type = declaringType;
+			binding = meth;
+			isMock = hasMockAnn;
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+
+/**
+ * Reverse map from mocked types to the files with mocks of them.
+ * Used to re-check only the mocks affected by changes in production classes.
+ * Entries of deleted files are dropped on resource deltas, and the map is saved in the plug-in
+ * state location between sessions, as files are only analysed again when they or their inputs change.
+ */
+final class MockDependents implements IResourceChangeListener
+{
+	private static final char SEPARATOR = '\t';
+
+	/** mocked type (or one of its super types) -> files that mock it */
+	private final Map<String, Set<IPath>> mockFiles = new HashMap<String, Set<IPath>>();
+	/** mock file -> mocked types it depends on, with the source files declaring them */
+	private final Map<IPath, Map<String, IPath>> mockedTypes = new HashMap<IPath, Map<String, IPath>>();
+	/** source file -> types declared in it that are mocked somewhere */
+	private final Map<IPath, Set<String>> declaredTypes = new HashMap<IPath, Set<String>>();
+	/** mocked type -> source file declaring it */
+	private final Map<String, IPath> declaringFiles = new HashMap<String, IPath>();
+	private final File storeFile;
+	private boolean dirty = false;
+
+	MockDependents(final File store)
+	{
+		storeFile = store;
+	}
+
+	/**
+	 * @return names of the mocked types and their super types with the source files declaring them,
+	 * {@code null} for binary types
+	 */
+	public static Map<String, IPath> getTypeFiles(final Collection<ITypeBinding> types)
+	{
+		Map<String, IPath> typeFiles = new LinkedHashMap<String, IPath>();
+
+		for (ITypeBinding mockedType : types)
+		{
+			for (ITypeBinding type : ASTUtil.getTypeHierarchy(mockedType))
+			{
+				String name = type.getQualifiedName();
+
+				if( name.length() != 0 && !typeFiles.containsKey(name) )
+				{
+					typeFiles.put(name, getDeclaringFile(type));
+				}
+			}
+		}
+
+		return typeFiles;
+	}
+
+	/**
+	 * Records the types mocked in a file, replacing what was recorded for it before
+	 *
+	 * @param types from {@link #getTypeFiles(Collection)}
+	 */
+	public synchronized void update(final IFile mockFile, final Map<String, IPath> types)
+	{
+		IPath mockPath = mockFile.getFullPath();
+		Map<String, IPath> old = mockedTypes.get(mockPath);
+
+		if( types.equals(old) )
+		{
+			return;
+		}
+
+		remove(mockPath);
+
+		for (Map.Entry<String, IPath> type : types.entrySet())
+		{
+			add(mockFiles, type.getKey(), mockPath);
+
+			if( type.getValue() != null )
+			{
+				setDeclaringFile(type.getKey(), type.getValue());
+			}
+		}
+
+		if( !types.isEmpty() )
+		{
+			mockedTypes.put(mockPath, new HashMap<String, IPath>(types));
+		}
+
+		dirty = true;
+	}
+
+	/**
+	 * @return files with mocks of the types declared in the changed file
+	 */
+	public synchronized Set<IFile> getDependents(final IFile changedFile)
+	{
+		Set<String> types = declaredTypes.get(changedFile.getFullPath());
+
+		if( types == null )
+		{
+			return Collections.emptySet();
+		}
+
+		Set<IFile> dependents = new HashSet<IFile>();
+		for (String type : types)
+		{
+			for (IPath mockPath : Util.emptyIfNull(mockFiles.get(type)))
+			{
+				if( !mockPath.equals(changedFile.getFullPath()) )
+				{
+					dependents.add(ResourcesPlugin.getWorkspace().getRoot().getFile(mockPath));
+				}
+			}
+		}
+
+		return dependents;
+	}
+
+	private void setDeclaringFile(final String type, final IPath file)
+	{
+		IPath oldFile = declaringFiles.put(type, file);
+
+		if( oldFile != null && !oldFile.equals(file) ) // type moved to another file
+		{
+			removeValue(declaredTypes, oldFile, type);
+		}
+
+		add(declaredTypes, file, type);
+	}
+
+	private void remove(final IPath mockPath)
+	{
+		Map<String, IPath> oldTypes = mockedTypes.remove(mockPath);
+
+		if( oldTypes == null )
+		{
+			return;
+		}
+
+		for (String type : oldTypes.keySet())
+		{
+			if( removeValue(mockFiles, type, mockPath) ) // no longer mocked anywhere
+			{
+				IPath declaringFile = declaringFiles.remove(type);
+
+				if( declaringFile != null )
+				{
+					removeValue(declaredTypes, declaringFile, type);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forgets a deleted file, both as a mock file and as the declaring file of mocked types
+	 */
+	private void removeFile(final IPath path)
+	{
+		remove(path);
+
+		for (String type : Util.emptyIfNull(declaredTypes.remove(path)))
+		{
+			declaringFiles.remove(type);
+		}
+	}
+
+	@Override
+	public void resourceChanged(final IResourceChangeEvent event)
+	{
+		IResourceDelta delta = event.getDelta();
+
+		if( delta == null )
+		{
+			return;
+		}
+
+		try
+		{
+			delta.accept(new IResourceDeltaVisitor()
+			{
+				@Override
+				public boolean visit(final IResourceDelta child)
+				{
+					if( child.getKind() != IResourceDelta.REMOVED )
+					{
+						return true;
+					}
+
+					removeAll(child.getResource().getFullPath());
+					return false;
+				}
+			});
+		}
+		catch (CoreException e)
+		{
+			Activator.log(e);
+		}
+	}
+
+	private synchronized void removeAll(final IPath removed)
+	{
+		Set<IPath> paths = new HashSet<IPath>(mockedTypes.keySet());
+		paths.addAll(declaredTypes.keySet());
+
+		for (IPath path : paths)
+		{
+			if( removed.isPrefixOf(path) )
+			{
+				removeFile(path);
+				dirty = true;
+			}
+		}
+	}
+
+	public synchronized void load()
+	{
+		if( !storeFile.exists() )
+		{
+			return;
+		}
+
+		try
+		{
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(storeFile), "UTF-8"));
+			try
+			{
+				Map<IPath, Map<String, IPath>> loaded = new LinkedHashMap<IPath, Map<String, IPath>>();
+
+				for (String line = reader.readLine(); line != null; line = reader.readLine())
+				{
+					String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+
+					if( fields.length == 3 )
+					{
+						IPath mockPath = Path.fromPortableString(fields[0]);
+						Map<String, IPath> types = loaded.get(mockPath);
+
+						if( types == null )
+						{
+							types = new LinkedHashMap<String, IPath>();
+							loaded.put(mockPath, types);
+						}
+
+						types.put(fields[1], fields[2].length() == 0 ? null : Path.fromPortableString(fields[2]));
+					}
+				}
+
+				for (Map.Entry<IPath, Map<String, IPath>> e : loaded.entrySet())
+				{
+					update(ResourcesPlugin.getWorkspace().getRoot().getFile(e.getKey()), e.getValue());
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch (Exception e)
+		{
+			mockFiles.clear(); // corrupt map is rebuilt as files are analysed
+			mockedTypes.clear();
+			declaredTypes.clear();
+			declaringFiles.clear();
+			Activator.log(e);
+		}
+
+		dirty = false;
+	}
+
+	public synchronized void save()
+	{
+		if( !dirty )
+		{
+			return;
+		}
+
+		try
+		{
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(storeFile), "UTF-8"));
+			try
+			{
+				for (Map.Entry<IPath, Map<String, IPath>> mock : mockedTypes.entrySet())
+				{
+					for (Map.Entry<String, IPath> type : mock.getValue().entrySet())
+					{
+						writer.write(mock.getKey().toPortableString());
+						writer.write(SEPARATOR);
+						writer.write(type.getKey());
+						writer.write(SEPARATOR);
+						writer.write(type.getValue() == null ? "" : type.getValue().toPortableString());
+						writer.write('\n');
+					}
+				}
+			}
+			finally
+			{
+				writer.close();
+			}
+
+			dirty = false;
+		}
+		catch (IOException e)
+		{
+			Activator.log(e);
+		}
+	}
+
+	private static IPath getDeclaringFile(final ITypeBinding type)
+	{
+		IJavaElement element = type.getJavaElement();
+
+		if( element instanceof IType )
+		{
+			ICompilationUnit cunit = ((IType) element).getCompilationUnit();
+			IResource res = cunit == null ? null : cunit.getResource();
+
+			if( res != null )
+			{
+				return res.getFullPath();
+			}
+		}
+
+		return null; // binary types do not change on build
+	}
+
+	private static <K, V> void add(final Map<K, Set<V>> map, final K key, final V value)
+	{
+		Set<V> values = map.get(key);
+		if( values == null )
+		{
+			values = new HashSet<V>();
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+
+	/**
+	 * @return true if the key has no values left
+	 */
+	private static <K, V> boolean removeValue(final Map<K, Set<V>> map, final K key, final V value)
+	{
+		Set<V> values = map.get(key);
+		if( values != null )
+		{
+			values.remove(value);
+			if( values.isEmpty() )
+			{
+				map.remove(key);
+				return true;
+			}
+			return false;
+		}
+		return true;
+	}
+}
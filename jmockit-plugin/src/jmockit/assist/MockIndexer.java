@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubProgressMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+/**
+ * Keeps the {@link MockUsageIndex} up to date no matter which files the check scope includes.
+ * Indexes all source files that reference mockit, in every project with JMockit on its classpath,
+ * when the saved index is missing or the previous run didn't finish. Afterwards indexes Java files
+ * as they are added or changed, and the files that changed while the workbench was closed.
+ */
+final class MockIndexer extends WorkspaceJob implements IResourceChangeListener
+{
+	private static final int BATCH_SIZE = 32;
+	/** coalesces the deltas of a save or a refresh */
+	private static final int CHANGE_DELAY = 1000;
+
+	private final Set<IFile> queued = new LinkedHashSet<IFile>();
+	private boolean indexAll = false;
+
+	MockIndexer()
+	{
+		super("JMockit mock index");
+
+		setSystem(false);
+		setPriority(Job.BUILD);
+		setRule(null); // only reads the workspace
+	}
+
+	/**
+	 * Indexes all files if the index is not complete, otherwise the ones changed since the last session
+	 */
+	public void start()
+	{
+		MockUsageIndex index = Activator.getMockUsageIndex();
+
+		if( !index.isComplete() )
+		{
+			synchronized (queued)
+			{
+				indexAll = true;
+			}
+			schedule();
+		}
+		else
+		{
+			index(index.takeStaleFiles());
+		}
+	}
+
+	public void index(final Collection<IFile> files)
+	{
+		if( files.isEmpty() )
+		{
+			return;
+		}
+
+		synchronized (queued)
+		{
+			queued.addAll(files);
+		}
+
+		schedule(CHANGE_DELAY);
+	}
+
+	@Override
+	public void resourceChanged(final IResourceChangeEvent event)
+	{
+		IResourceDelta delta = event.getDelta();
+
+		if( delta == null )
+		{
+			return;
+		}
+
+		final List<IFile> changed = new ArrayList<IFile>();
+
+		try
+		{
+			delta.accept(new IResourceDeltaVisitor()
+			{
+				@Override
+				public boolean visit(final IResourceDelta child)
+				{
+					IResource res = child.getResource();
+
+					if( res.getType() != IResource.FILE )
+					{
+						return true;
+					}
+
+					boolean contentChanged = child.getKind() == IResourceDelta.CHANGED
+							&& (child.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0;
+
+					if( (child.getKind() == IResourceDelta.ADDED || contentChanged)
+							&& "java".equals(res.getFileExtension()) )
+					{
+						changed.add((IFile) res);
+					}
+
+					return false;
+				}
+			});
+		}
+		catch (CoreException e)
+		{
+			Activator.log(e);
+		}
+
+		index(changed); // removed files are dropped by the index itself
+	}
+
+	@Override
+	public IStatus runInWorkspace(final IProgressMonitor mon) throws CoreException
+	{
+		boolean all;
+		List<IFile> files;
+
+		synchronized (queued)
+		{
+			all = indexAll;
+			files = new ArrayList<IFile>(queued);
+			indexAll = false;
+			queued.clear();
+		}
+
+		IStatus status = all ? indexWorkspace(mon) : indexFiles(files, mon);
+
+		if( status.getSeverity() == IStatus.CANCEL )
+		{
+			synchronized (queued) // picked up by the next run
+			{
+				indexAll |= all;
+				queued.addAll(files);
+			}
+			return status;
+		}
+
+		if( all )
+		{
+			Activator.getMockUsageIndex().setComplete();
+			Activator.getMockUsageIndex().save();
+		}
+
+		Activator.getMockedByAnnotations().indexChanged();
+
+		return status;
+	}
+
+	private IStatus indexWorkspace(final IProgressMonitor mon) throws CoreException
+	{
+		List<IJavaProject> projects = new ArrayList<IJavaProject>();
+
+		for (IJavaProject jproj : JavaCore.create(ResourcesPlugin.getWorkspace().getRoot()).getJavaProjects())
+		{
+			if( jproj.isOpen() && Activator.getMockitClasspath().isOnClasspath(jproj) )
+			{
+				projects.add(jproj);
+			}
+		}
+
+		mon.beginTask(getName(), projects.size());
+
+		try
+		{
+			for (IJavaProject jproj : projects)
+			{
+				mon.subTask(jproj.getElementName());
+				indexUnits(getProjectUnits(jproj), new SubProgressMonitor(mon, 1));
+			}
+		}
+		catch (OperationCanceledException e)
+		{
+			return Status.CANCEL_STATUS;
+		}
+		finally
+		{
+			mon.done();
+		}
+
+		return mon.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+	}
+
+	private IStatus indexFiles(final List<IFile> files, final IProgressMonitor mon) throws CoreException
+	{
+		Map<IJavaProject, List<ICompilationUnit>> units = new LinkedHashMap<IJavaProject, List<ICompilationUnit>>();
+
+		for (IFile file : files)
+		{
+			IJavaElement element = file.isAccessible() ? JavaCore.create(file) : null;
+
+			if( element instanceof ICompilationUnit && element.exists() && isIndexed((ICompilationUnit) element) )
+			{
+				List<ICompilationUnit> projectUnits = units.get(element.getJavaProject());
+				if( projectUnits == null )
+				{
+					projectUnits = new ArrayList<ICompilationUnit>();
+					units.put(element.getJavaProject(), projectUnits);
+				}
+				projectUnits.add((ICompilationUnit) element);
+			}
+			else
+			{
+				// mocks may have been deleted
+				Activator.getMockUsageIndex().remove(file);
+				Activator.getMockDependents().update(file, Collections.<String, IPath>emptyMap());
+			}
+		}
+
+		mon.beginTask(getName(), units.size());
+
+		try
+		{
+			for (List<ICompilationUnit> projectUnits : units.values())
+			{
+				indexUnits(projectUnits, new SubProgressMonitor(mon, 1));
+			}
+		}
+		catch (OperationCanceledException e)
+		{
+			return Status.CANCEL_STATUS;
+		}
+		finally
+		{
+			mon.done();
+		}
+
+		return mon.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+	}
+
+	private static List<ICompilationUnit> getProjectUnits(final IJavaProject jproj) throws CoreException
+	{
+		List<ICompilationUnit> units = new ArrayList<ICompilationUnit>();
+
+		for (IPackageFragmentRoot root : jproj.getPackageFragmentRoots())
+		{
+			if( root.getKind() != IPackageFragmentRoot.K_SOURCE || !jproj.equals(root.getJavaProject()) )
+			{
+				continue;
+			}
+
+			for (IJavaElement child : root.getChildren())
+			{
+				for (ICompilationUnit cunit : ((IPackageFragment) child).getCompilationUnits())
+				{
+					if( isIndexed(cunit) )
+					{
+						units.add(cunit);
+					}
+				}
+			}
+		}
+
+		return units;
+	}
+
+	/**
+	 * @return true for source files of projects with JMockit that reference mockit
+	 */
+	private static boolean isIndexed(final ICompilationUnit cunit)
+	{
+		IResource res = cunit.getResource();
+
+		return res instanceof IFile && !res.isDerived(IResource.CHECK_ANCESTORS)
+				&& Activator.getMockitClasspath().isOnClasspath(cunit.getJavaProject())
+				&& Activator.getReferenceIndex().referencesMockit((IFile) res);
+	}
+
+	/**
+	 * Parses the units of one project in batches, which share binding resolution and keep only a few ASTs
+	 * in memory
+	 */
+	private static void indexUnits(final List<ICompilationUnit> units, final IProgressMonitor mon)
+	{
+		mon.beginTask("", units.size());
+
+		for (int i = 0; i < units.size() && !mon.isCanceled(); i += BATCH_SIZE)
+		{
+			List<ICompilationUnit> batch = units.subList(i, Math.min(units.size(), i + BATCH_SIZE));
+
+			ASTUtil.parse(batch.toArray(new ICompilationUnit[batch.size()]), new ASTRequestor()
+			{
+				@Override
+				public void acceptAST(final ICompilationUnit source, final CompilationUnit ast)
+				{
+					IFile file = (IFile) source.getResource();
+					MockASTVisitor visitor = new MockASTVisitor(source);
+					ast.accept(visitor);
+
+					Activator.getMockUsageIndex().update(file, visitor.getMockUsages());
+					Activator.getMockDependents().update(file, MockDependents.getTypeFiles(visitor.getMockedTypes()));
+					mon.worked(1);
+				}
+			}, Util.cancelOnly(mon));
+		}
+
+		mon.done();
+	}
+}
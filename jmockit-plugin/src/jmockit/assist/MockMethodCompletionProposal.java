@@ -13,6 +13,8 @@ package jmockit.assist;
 
 import java.util.Map;
 
+import jmockit.assist.MemberTables.Member;
+
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.NullProgressMonitor;
@@ -72,6 +74,9 @@ implements ICompletionProposalExtension4
 	static final int OBJ_METHOD_RELEVANCE = 80;
 
 	private final IMethodBinding method;
+	private final Member member;
+	private final String mockedTypeName;
+	private boolean hasDisplayString;
 
 	private final IJavaProject fJavaProject;
 	private ICompilationUnit cunit;
@@ -79,26 +84,24 @@ implements ICompletionProposalExtension4
 	private ImportRewriteContext context;
 	private ImportRewrite importRewrite;
 
+	/**
+	 * Display and replacement strings are only created when the proposal is shown or applied
+	 */
 	public MockMethodCompletionProposal(final ICompilationUnit cu,
-			final IMethodBinding meth, final int start, final int length,
-			final StyledString displayName, final String completionProposal)
-					throws IllegalArgumentException, JavaModelException
+			final Member mockedMember, final String mockedType, final int start, final int length)
 	{
-		super(completionProposal, cu, start, length, null, displayName, METHOD_RELEVANCE );
+		super("", cu, start, length, null, null, METHOD_RELEVANCE );
 
-		Assert.isNotNull(meth);
+		Assert.isNotNull(mockedMember);
 		Assert.isNotNull(cu);
 
-		method = meth;
+		member = mockedMember;
+		method = member.method;
+		mockedTypeName = mockedType;
 		cunit = cu;
 		fJavaProject = cu.getJavaProject();
 
-		StringBuffer buffer = new StringBuffer();
-		buffer.append("@Mock ");
-		buffer.append(completionProposal);
-		buffer.append(" { }");
-
-		if( Object.class.getName().equals( method.getDeclaringClass().getQualifiedName() ) ) // from Object
+		if( TypeNames.is(method.getDeclaringClass(), Object.class.getName()) ) // from Object
 		{
 			setImage(JavaPluginImages.get(JavaPluginImages.IMG_MISC_PUBLIC));
 			setRelevance(OBJ_METHOD_RELEVANCE);
@@ -107,14 +110,89 @@ implements ICompletionProposalExtension4
 		{
 			setImage(JavaPluginImages.get(JavaPluginImages.IMG_MISC_DEFAULT));
 		}
+	}
+
+	@Override
+	public final StyledString getStyledDisplayString()
+	{
+		if( !hasDisplayString )
+		{
+			hasDisplayString = true;
+			setStyledDisplayString(createDisplayString());
+		}
+
+		return super.getStyledDisplayString();
+	}
+
+	@Override
+	public final String getDisplayString()
+	{
+		return getStyledDisplayString().getString();
+	}
+
+	@Override
+	public final String getSortString()
+	{
+		return member.name;
+	}
+
+	@Override
+	protected final boolean isValidPrefix(final String prefix)
+	{
+		return isPrefix(prefix, member.name); // the inserted name, $init for constructors
+	}
+
+	@Override
+	public final String getReplacementString()
+	{
+		String replacement = super.getReplacementString();
+
+		if( replacement.length() == 0 ) // not applied yet
+		{
+			replacement = "@Mock " + method.getReturnType().getName() + " " + member.name + " { }";
+			setReplacementString(replacement);
+		}
+
+		return replacement;
+	}
+
+	private StyledString createDisplayString()
+	{
+		StringBuilder display = new StringBuilder(member.name).append('(');
+
+		try
+		{
+			String[] paramNames = member.getParameterNames();
+			ITypeBinding[] paramTypes = method.getParameterTypes();
+
+			for (int i = 0; paramNames != null && i < paramTypes.length; i++)
+			{
+				if( i != 0 )
+				{
+					display.append(", ");
+				}
+
+				display.append(paramTypes[i].getName()).append(' ').append(paramNames[i]);
+			}
+		}
+		catch (JavaModelException e)
+		{
+			Activator.log(e);
+		}
+
+		display.append(") : ").append(method.getReturnType().getName());
+
+		StyledString displayName = new StyledString(display.toString());
+		String desc = method.isConstructor() ? "constructor" : "method";
+		displayName.append(" - Mock " + desc + " of '" + mockedTypeName + "'", StyledString.QUALIFIER_STYLER);
 
-		setReplacementString(buffer.toString());
+		return displayName;
 	}
 
 	@Override
 	public final CharSequence getPrefixCompletionText(final IDocument document, final int completionOffset)
 	{
-		return method.getName();
+		return member.name;
 	}
 
 	@Override
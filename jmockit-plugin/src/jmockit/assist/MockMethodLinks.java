@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.ITypeRoot;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.ui.SharedASTProvider;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+
+/**
+ * Maps names of mock methods to the real methods they mock. The map of a file is built in a background
+ * job for each version of its document, so that hyperlink detection on the UI thread is only a lookup.
+ * Files that don't reference mockit get an empty map without a job.
+ */
+final class MockMethodLinks
+{
+	private static final int MAX_FILES = 16;
+
+	private final Map<ITypeRoot, Links> links = new LinkedHashMap<ITypeRoot, Links>(MAX_FILES, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<ITypeRoot, Links> eldest)
+		{
+			return size() > MAX_FILES;
+		}
+	};
+
+	/**
+	 * Must not block, called from the UI thread
+	 *
+	 * @return real method of the mock method name at the offset or {@code null}, also if the map of the
+	 * current document version is not built yet
+	 */
+	public Link find(final ITypeRoot input, final IDocument document, final int offset)
+	{
+		long stamp = getStamp(document);
+		Links fileLinks;
+
+		synchronized (links)
+		{
+			fileLinks = links.get(input);
+
+			if( fileLinks == null || fileLinks.stamp != stamp )
+			{
+				fileLinks = new Links(stamp, document.get());
+				links.put(input, fileLinks);
+
+				if( input instanceof ICompilationUnit
+						&& !Activator.getReferenceIndex().referencesMockit((ICompilationUnit) input) )
+				{
+					fileLinks.sorted = new Link[0];
+				}
+				else
+				{
+					new BuildJob(input, fileLinks).schedule();
+				}
+			}
+		}
+
+		return fileLinks.find(offset);
+	}
+
+	/**
+	 * @return true if the last reconcile of the working copy, whose AST is shared, was of the given contents
+	 */
+	private static boolean isReconciled(final ITypeRoot input, final String source)
+	{
+		if( !(input instanceof ICompilationUnit) )
+		{
+			return true; // class files don't change
+		}
+
+		try
+		{
+			ICompilationUnit cunit = (ICompilationUnit) input;
+			return cunit.isConsistent() && source.equals(cunit.getSource());
+		}
+		catch (JavaModelException e)
+		{
+			return false;
+		}
+	}
+
+	private static long getStamp(final IDocument document)
+	{
+		if( document instanceof IDocumentExtension4 )
+		{
+			return ((IDocumentExtension4) document).getModificationStamp();
+		}
+
+		return document.get().hashCode();
+	}
+
+	static final class Link
+	{
+		final IRegion region;
+		final IMethod realMethod;
+
+		Link(final int start, final int length, final IMethod method)
+		{
+			region = new Region(start, length);
+			realMethod = method;
+		}
+	}
+
+	private static final class Links
+	{
+		final long stamp;
+		/** contents of the document version, to recognise an AST of different contents */
+		final String source;
+		/** sorted by offset, {@code null} until built */
+		private volatile Link[] sorted;
+
+		Links(final long documentStamp, final String documentSource)
+		{
+			stamp = documentStamp;
+			source = documentSource;
+		}
+
+		Link find(final int offset)
+		{
+			Link[] all = sorted;
+			int low = 0;
+			int high = all == null ? -1 : all.length - 1;
+
+			while( low <= high ) // last link starting at or before the offset
+			{
+				int mid = (low + high) >>> 1;
+
+				if( all[mid].region.getOffset() <= offset )
+				{
+					low = mid + 1;
+				}
+				else
+				{
+					high = mid - 1;
+				}
+			}
+
+			if( high >= 0 && offset < all[high].region.getOffset() + all[high].region.getLength() )
+			{
+				return all[high];
+			}
+
+			return null;
+		}
+	}
+
+	private final class BuildJob extends Job
+	{
+		private final ITypeRoot input;
+		private final Links fileLinks;
+
+		BuildJob(final ITypeRoot typeRoot, final Links links)
+		{
+			super("Linking mock methods");
+			input = typeRoot;
+			fileLinks = links;
+
+			setSystem(true);
+			setPriority(Job.SHORT);
+		}
+
+		@Override
+		protected IStatus run(final IProgressMonitor mon)
+		{
+			CompilationUnit astRoot = SharedASTProvider.getAST(input, SharedASTProvider.WAIT_YES, mon);
+
+			if( astRoot == null || !isReconciled(input, fileLinks.source) )
+			{
+				astRoot = input instanceof ICompilationUnit // not of this document version
+						? ASTUtil.parse(input, fileLinks.source, mon) : ASTUtil.parse(input, mon);
+			}
+
+			if( mon.isCanceled() || astRoot == null )
+			{
+				synchronized (links) // so that the next lookup schedules the map again
+				{
+					if( links.get(input) == fileLinks )
+					{
+						links.remove(input);
+					}
+				}
+
+				return Status.CANCEL_STATUS;
+			}
+
+			final List<Link> found = new ArrayList<Link>();
+			final MethodTable.Cache methodTables = new MethodTable.Cache();
+
+			astRoot.accept(new ASTVisitor()
+			{
+				@Override
+				public boolean visit(final MethodDeclaration node)
+				{
+					IMethodBinding meth = node.resolveBinding();
+					ITypeBinding mockedType = MockUtil.findMockedType(node, meth);
+
+					if( mockedType != null )
+					{
+						IMethodBinding realMethod = MockUtil.findRealMethodInType(mockedType, meth, node, methodTables);
+						IJavaElement element = realMethod == null ? null : realMethod.getJavaElement();
+
+						if( element instanceof IMethod )
+						{
+							found.add(new Link(node.getName().getStartPosition(), node.getName().getLength(),
+									(IMethod) element));
+						}
+					}
+
+					return true;
+				}
+			});
+
+			fileLinks.sorted = found.toArray(new Link[found.size()]); // names are visited in source order
+
+			return Status.OK_STATUS;
+		}
+	}
+}
@@ -0,0 +1,615 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.Signature;
+import org.eclipse.jdt.core.dom.IBinding;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+
+/**
+ * Workspace index of mocks by the real types and methods they mock, so a query is a map lookup.
+ * Files are indexed when the compilation participant analyses them and by the {@link MockIndexer} when
+ * they change, whatever the check scope. Saved in the plug-in state location between sessions, files changed
+ * while the workbench was closed are dropped on load and indexed again. Until the indexer has gone through
+ * all files once, the index is not complete.
+ * <p>
+ * Methods are keyed by declaring type, name and qualified names of the erased parameter types,
+ * type variables by their name. Keys of Java model methods resolve the parameter types in the
+ * declaring type, which is only done for names that have mocks.
+ */
+final class MockUsageIndex implements IResourceChangeListener
+{
+	private static final char SEPARATOR = '\t';
+	private static final int FIELDS = 6;
+	private static final String COMPLETE = "#complete";
+
+	private final Map<IPath, FileUsages> files = new HashMap<IPath, FileUsages>();
+	private final Map<String, List<Usage>> byType = new HashMap<String, List<Usage>>();
+	private final Map<String, List<Usage>> byMethod = new HashMap<String, List<Usage>>();
+	/** type#name part of the method keys */
+	private final Map<String, List<Usage>> byMethodName = new HashMap<String, List<Usage>>();
+	private final File storeFile;
+	private boolean dirty = false;
+	/** all files have been indexed */
+	private boolean complete = false;
+	/** files dropped on load because they changed since they were indexed */
+	private final List<IFile> stale = new ArrayList<IFile>();
+
+	MockUsageIndex(final File store)
+	{
+		storeFile = store;
+	}
+
+	/**
+	 * Records the mocks found in a file, replacing what was recorded for it before
+	 */
+	public synchronized void update(final IFile file, final Collection<Usage> usages)
+	{
+		remove(file.getFullPath());
+
+		if( !usages.isEmpty() )
+		{
+			add(new FileUsages(file.getFullPath(), file.getModificationStamp(), usages));
+		}
+
+		dirty = true;
+	}
+
+	public synchronized void remove(final IFile file)
+	{
+		if( remove(file.getFullPath()) )
+		{
+			dirty = true;
+		}
+	}
+
+	/**
+	 * @return mock types of the type with the given qualified name
+	 */
+	public synchronized List<Usage> findMocksOfType(final String qualifiedName)
+	{
+		List<Usage> mockTypes = new ArrayList<Usage>();
+
+		for (Usage usage : Util.emptyIfNull(byType.get(qualifiedName)))
+		{
+			if( usage.realMethod == null )
+			{
+				mockTypes.add(usage);
+			}
+		}
+
+		return mockTypes;
+	}
+
+	/**
+	 * @return true if there are mocks of any of the types with the given qualified names
+	 */
+	public synchronized boolean hasMocks(final Collection<String> qualifiedNames)
+	{
+		for (String name : qualifiedNames)
+		{
+			if( byType.containsKey(name) )
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return files that changed since they were indexed in an earlier session, only returned once
+	 */
+	public synchronized List<IFile> takeStaleFiles()
+	{
+		List<IFile> taken = new ArrayList<IFile>(stale);
+		stale.clear();
+		return taken;
+	}
+
+	public synchronized boolean isComplete()
+	{
+		return complete;
+	}
+
+	public synchronized void setComplete()
+	{
+		complete = true;
+		dirty = true;
+	}
+
+	/**
+	 * @return mock methods of the given real method
+	 */
+	public List<Usage> findMocksOfMethod(final IMethod realMethod)
+	{
+		String name = realMethod.getDeclaringType().getFullyQualifiedName('.') + '#' + realMethod.getElementName();
+
+		synchronized (this)
+		{
+			if( !byMethodName.containsKey(name) )
+			{
+				return new ArrayList<Usage>(); // not mocked, don't resolve the parameter types
+			}
+		}
+
+		String key = getMethodKey(realMethod); // resolves types without holding the index
+
+		synchronized (this)
+		{
+			return new ArrayList<Usage>(Util.emptyIfNull(key == null ? null : byMethod.get(key)));
+		}
+	}
+
+	public synchronized List<Usage> findMocksOfMethod(final IMethodBinding realMethod)
+	{
+		return new ArrayList<Usage>(Util.emptyIfNull(byMethod.get(getMethodKey(realMethod))));
+	}
+
+	private void add(final FileUsages fileUsages)
+	{
+		files.put(fileUsages.path, fileUsages);
+
+		for (Usage usage : fileUsages.usages)
+		{
+			add(byType, usage.realType, usage);
+
+			if( usage.realMethod != null )
+			{
+				add(byMethod, usage.realMethod, usage);
+				add(byMethodName, getMethodName(usage.realMethod), usage);
+			}
+		}
+	}
+
+	private boolean remove(final IPath path)
+	{
+		FileUsages old = files.remove(path);
+
+		if( old == null )
+		{
+			return false;
+		}
+
+		for (Usage usage : old.usages)
+		{
+			remove(byType, usage.realType, usage);
+
+			if( usage.realMethod != null )
+			{
+				remove(byMethod, usage.realMethod, usage);
+				remove(byMethodName, getMethodName(usage.realMethod), usage);
+			}
+		}
+
+		return true;
+	}
+
+	private static void add(final Map<String, List<Usage>> map, final String key, final Usage usage)
+	{
+		List<Usage> usages = map.get(key);
+		if( usages == null )
+		{
+			usages = new ArrayList<Usage>(1);
+			map.put(key, usages);
+		}
+		usages.add(usage);
+	}
+
+	private static void remove(final Map<String, List<Usage>> map, final String key, final Usage usage)
+	{
+		List<Usage> usages = map.get(key);
+		if( usages != null )
+		{
+			usages.remove(usage);
+			if( usages.isEmpty() )
+			{
+				map.remove(key);
+			}
+		}
+	}
+
+	static String getMethodKey(final IMethodBinding meth)
+	{
+		IMethodBinding decl = meth.getMethodDeclaration();
+		StringBuilder key = new StringBuilder(decl.getDeclaringClass().getErasure().getQualifiedName());
+		key.append('#').append(decl.getName()).append('(');
+
+		for (ITypeBinding paramType : decl.getParameterTypes())
+		{
+			ITypeBinding elementType = paramType.isArray() ? paramType.getElementType() : paramType;
+			key.append(elementType.isTypeVariable() ? elementType.getName()
+					: elementType.getErasure().getQualifiedName());
+
+			for (int i = 0; i < paramType.getDimensions(); i++)
+			{
+				key.append("[]");
+			}
+			key.append(',');
+		}
+
+		return key.append(')').toString();
+	}
+
+	/**
+	 * @return key of the method or {@code null} for methods of local and anonymous types
+	 */
+	static String getMethodKey(final IMethod meth)
+	{
+		IType type = meth.getDeclaringType();
+
+		if( type.getParent().getElementType() == IJavaElement.METHOD || type.getElementName().length() == 0 )
+		{
+			return null;
+		}
+
+		StringBuilder key = new StringBuilder(type.getFullyQualifiedName('.'));
+		key.append('#').append(meth.getElementName()).append('(');
+
+		for (String paramType : meth.getParameterTypes())
+		{
+			String erased = Signature.getTypeErasure(paramType);
+			key.append(getQualifiedName(meth, Signature.getElementType(erased)));
+
+			for (int i = 0; i < Signature.getArrayCount(erased); i++)
+			{
+				key.append("[]");
+			}
+			key.append(',');
+		}
+
+		return key.append(')').toString();
+	}
+
+	/**
+	 * @return qualified name of a parameter type like the one of its binding, unqualified if it can't be resolved
+	 */
+	private static String getQualifiedName(final IMethod meth, final String typeSignature)
+	{
+		String name = Signature.toString(typeSignature);
+
+		if( typeSignature.charAt(0) != Signature.C_UNRESOLVED || isTypeVariable(meth, name) )
+		{
+			return name.replace('$', '.'); // binary types are resolved, Outer$Inner as Outer.Inner
+		}
+
+		try
+		{
+			String[][] resolved = meth.getDeclaringType().resolveType(name);
+
+			if( resolved != null && resolved.length != 0 )
+			{
+				return resolved[0][0].length() == 0 ? resolved[0][1] : resolved[0][0] + '.' + resolved[0][1];
+			}
+		}
+		catch (JavaModelException e) // structure unknown
+		{
+		}
+
+		return name;
+	}
+
+	private static boolean isTypeVariable(final IMethod meth, final String name)
+	{
+		if( meth.getTypeParameter(name).exists() )
+		{
+			return true;
+		}
+
+		for (IJavaElement parent = meth.getDeclaringType(); parent instanceof IType; parent = parent.getParent())
+		{
+			if( ((IType) parent).getTypeParameter(name).exists() )
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return type#name part of a method key
+	 */
+	private static String getMethodName(final String methodKey)
+	{
+		return methodKey.substring(0, methodKey.indexOf('('));
+	}
+
+	@Override
+	public void resourceChanged(final IResourceChangeEvent event)
+	{
+		IResourceDelta delta = event.getDelta();
+
+		if( delta == null )
+		{
+			return;
+		}
+
+		try
+		{
+			delta.accept(new IResourceDeltaVisitor()
+			{
+				@Override
+				public boolean visit(final IResourceDelta child)
+				{
+					if( child.getKind() != IResourceDelta.REMOVED )
+					{
+						return true;
+					}
+
+					removeAll(child.getResource().getFullPath());
+					return false;
+				}
+			});
+		}
+		catch (CoreException e)
+		{
+			Activator.log(e);
+		}
+	}
+
+	private synchronized void removeAll(final IPath removed)
+	{
+		for (IPath path : new ArrayList<IPath>(files.keySet()))
+		{
+			if( removed.isPrefixOf(path) )
+			{
+				remove(path);
+				dirty = true;
+			}
+		}
+	}
+
+	public synchronized void load()
+	{
+		if( !storeFile.exists() )
+		{
+			return;
+		}
+
+		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+
+		try
+		{
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(storeFile), "UTF-8"));
+			try
+			{
+				Map<IPath, List<Usage>> loaded = new HashMap<IPath, List<Usage>>();
+				Map<IPath, Long> stamps = new HashMap<IPath, Long>();
+
+				for (String line = reader.readLine(); line != null; line = reader.readLine())
+				{
+					if( COMPLETE.equals(line) )
+					{
+						complete = true;
+						continue;
+					}
+
+					String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+
+					if( fields.length != FIELDS )
+					{
+						continue;
+					}
+
+					IPath path = Path.fromPortableString(fields[0]);
+					List<Usage> usages = loaded.get(path);
+
+					if( usages == null )
+					{
+						usages = new ArrayList<Usage>();
+						loaded.put(path, usages);
+						stamps.put(path, Long.valueOf(fields[1]));
+					}
+
+					usages.add(new Usage(path, fields[2], fields[3].length() == 0 ? null : fields[3], fields[4],
+							fields[5]));
+				}
+
+				for (Map.Entry<IPath, List<Usage>> e : loaded.entrySet())
+				{
+					long stamp = stamps.get(e.getKey()).longValue();
+
+					if( root.getFile(e.getKey()).getModificationStamp() == stamp ) // unchanged since indexed
+					{
+						add(new FileUsages(e.getKey(), stamp, e.getValue()));
+					}
+					else
+					{
+						stale.add(root.getFile(e.getKey()));
+					}
+				}
+
+				dirty = files.size() != loaded.size(); // save without the dropped files
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch (Exception e)
+		{
+			files.clear(); // corrupt index is rebuilt by the indexer
+			byType.clear();
+			byMethod.clear();
+			byMethodName.clear();
+			complete = false;
+			stale.clear();
+			Activator.log(e);
+		}
+	}
+
+	public synchronized void save()
+	{
+		if( !dirty )
+		{
+			return;
+		}
+
+		try
+		{
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(storeFile), "UTF-8"));
+			try
+			{
+				if( complete )
+				{
+					writer.write(COMPLETE);
+					writer.write('\n');
+				}
+
+				for (FileUsages fileUsages : files.values())
+				{
+					for (Usage usage : fileUsages.usages)
+					{
+						writer.write(fileUsages.path.toPortableString());
+						writer.write(SEPARATOR);
+						writer.write(Long.toString(fileUsages.stamp));
+						writer.write(SEPARATOR);
+						writer.write(usage.realType);
+						writer.write(SEPARATOR);
+						writer.write(usage.realMethod == null ? "" : usage.realMethod);
+						writer.write(SEPARATOR);
+						writer.write(usage.mockHandle);
+						writer.write(SEPARATOR);
+						writer.write(usage.label);
+						writer.write('\n');
+					}
+				}
+			}
+			finally
+			{
+				writer.close();
+			}
+
+			dirty = false;
+		}
+		catch (IOException e)
+		{
+			Activator.log(e);
+		}
+	}
+
+	/**
+	 * A mock type or mock method of a real type or method
+	 */
+	static final class Usage
+	{
+		final IPath file;
+		/** qualified name of the mocked type */
+		final String realType;
+		/** key of the mocked method, {@code null} for a mock type */
+		final String realMethod;
+		/** handle identifier of the mock type or method */
+		final String mockHandle;
+		final String label;
+
+		/**
+		 * @param mockedType type mocked by the mock type or the declaring type of the mock method
+		 * @param mockedMethod real method of a mock method or {@code null} for a mock type
+		 * @param mock binding of the mock type or mock method
+		 */
+		Usage(final IPath mockFile, final ITypeBinding mockedType, final IMethodBinding mockedMethod,
+				final IBinding mock)
+		{
+			this(mockFile, mockedType.getErasure().getQualifiedName(),
+					mockedMethod == null ? null : getMethodKey(mockedMethod), getHandle(mock),
+					getLabel(mockedType, mock));
+		}
+
+		private Usage(final IPath mockFile, final String type, final String method, final String handle,
+				final String text)
+		{
+			file = mockFile;
+			realType = type;
+			realMethod = method;
+			mockHandle = handle;
+			label = text;
+		}
+
+		/**
+		 * @return mock type or method, may not exist if the file changed since it was indexed
+		 */
+		public IJavaElement getMock()
+		{
+			return JavaCore.create(mockHandle);
+		}
+
+		private static String getHandle(final IBinding mock)
+		{
+			IJavaElement element = mock.getJavaElement();
+			return element == null ? "" : element.getHandleIdentifier();
+		}
+
+		private static String getLabel(final ITypeBinding mockedType, final IBinding mock)
+		{
+			ITypeBinding mockType = mock instanceof IMethodBinding ? ((IMethodBinding) mock).getDeclaringClass()
+					: (ITypeBinding) mock;
+			String typeName = mockType.isAnonymous() ? "new MockUp<" + mockedType.getErasure().getName() + ">(){}"
+					: mockType.getName();
+
+			return mock instanceof IMethodBinding ? typeName + '.' + mock.getName() + "()" : typeName;
+		}
+
+		@Override
+		public String toString()
+		{
+			return label + " - " + file.removeFirstSegments(1).toString();
+		}
+	}
+
+	private static final class FileUsages
+	{
+		final IPath path;
+		/** modification stamp of the file when it was indexed */
+		final long stamp;
+		final Collection<Usage> usages;
+
+		FileUsages(final IPath file, final long modificationStamp, final Collection<Usage> fileUsages)
+		{
+			path = file;
+			stamp = modificationStamp;
+			usages = Collections.unmodifiableCollection(fileUsages);
+		}
+	}
+}
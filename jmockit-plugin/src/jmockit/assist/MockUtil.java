@@ -11,7 +11,6 @@
  */
 package jmockit.assist;
 
-import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
 import org.eclipse.jdt.core.dom.IAnnotationBinding;
@@ -74,7 +73,7 @@ public class MockUtil
 
 	public static boolean isMockUpType(final ITypeBinding declaringClass)
 	{
-		return declaringClass != null && declaringClass.getQualifiedName().startsWith(MOCK_UP);
+		return TypeNames.is(declaringClass, MOCK_UP);
 	}
 
 	public static ITypeBinding findMockedType(final MethodInvocation node)
@@ -115,35 +114,32 @@ public class MockUtil
 		return typePar;
 	}
 
-	public static IMethodBinding findRealMethodInType(ITypeBinding type, IMethodBinding meth, AST ast)
+	/**
+	 * @param context any node of the AST the bindings were resolved from
+	 * @param tables method tables of that AST
+	 */
+	public static IMethodBinding findRealMethodInType(final ITypeBinding type, final IMethodBinding meth,
+			final ASTNode context, final MethodTable.Cache tables)
 	{
-		return findRealMethodInType(type, meth.getName(), meth.getParameterTypes(), ast);
+		return findRealMethodInType(type, meth.getName(), meth.getParameterTypes(), context, tables);
 	}
 
+	/**
+	 * @param mname mock method name, {@link #CTOR} for constructors
+	 * @param paramTypes mock method parameter types, a leading mockit.Invocation parameter is ignored
+	 * @param context any node of the AST the bindings were resolved from
+	 * @param tables method tables of that AST
+	 */
 	public static IMethodBinding findRealMethodInType(final ITypeBinding type, final String mname,
-			final ITypeBinding[] paramTypes, final AST ast)
+			final ITypeBinding[] paramTypes, final ASTNode context, final MethodTable.Cache tables)
 	{
-		String name = mname;
-		if( MockUtil.CTOR.equals(name) )
-			name = type.getName();
-		
-		IMethodBinding origMethod = ASTUtil.findMethodInType(type, name, paramTypes);
-
-		if( origMethod == null && type.isInterface() && ast != null ) // interfaces can mock Object.class methods
-		{
-			ITypeBinding objType = ast.resolveWellKnownType(Object.class.getName());
-			origMethod = ASTUtil.findMethodInType(objType, name, paramTypes);
-		}
+		IMethodBinding origMethod = tables.get(type).find(mname, paramTypes);
 
-		if (origMethod == null && type.getTypeArguments().length != 0)
+		// interfaces can mock Object.class methods, but not its constructor
+		if( origMethod == null && type.isInterface() && !CTOR.equals(mname) )
 		{
-			// no method matches exactly, there could be type arguments (which we don't handle yet)
-			origMethod = ASTUtil.findMethodInType(type, name, null); // match without params
-
-			if (origMethod != null && origMethod.getParameterTypes().length != paramTypes.length)
-			{
-				origMethod = null;
-			}
+			ITypeBinding objType = context.getAST().resolveWellKnownType(Object.class.getName());
+			origMethod = tables.get(objType).find(mname, paramTypes);
 		}
 
 		return origMethod;
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import jmockit.assist.MockUsageIndex.Usage;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.ISourceRange;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeRoot;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.text.source.IAnnotationModelExtension;
+import org.eclipse.ui.PlatformUI;
+
+/**
+ * Marks methods of open working copies that are mocked somewhere with a "Mocked by" annotation and
+ * remembers their mocks for the reverse hyperlink. Mocks are looked up in the {@link MockUsageIndex}
+ * by the Java model methods of the working copy in a background job after each reconcile and when the
+ * index changes, so neither the editor nor the hyperlink detector search the workspace.
+ */
+final class MockedByAnnotations implements IElementChangedListener
+{
+	public static final String ANNOTATION_TYPE = "jmockit.assist.mockedBy";
+	private static final int INDEX_CHANGE_DELAY = 500;
+
+	/** working copies seen reconciling, with their mocked methods */
+	private final Map<ICompilationUnit, Map<IMethod, List<Usage>>> workingCopies
+		= new HashMap<ICompilationUnit, Map<IMethod, List<Usage>>>();
+	private final Set<ICompilationUnit> pending = new LinkedHashSet<ICompilationUnit>();
+	/** annotations added to each model, only touched from the UI thread */
+	private final Map<IAnnotationModel, Annotation[]> shown = new WeakHashMap<IAnnotationModel, Annotation[]>();
+	private final Job job = new UpdateJob();
+
+	@Override
+	public void elementChanged(final ElementChangedEvent event)
+	{
+		IJavaElement element = event.getDelta().getElement();
+
+		if( event.getType() == ElementChangedEvent.POST_CHANGE )
+		{
+			forgetDiscarded(event.getDelta());
+		}
+		else if( event.getType() == ElementChangedEvent.POST_RECONCILE && element instanceof ICompilationUnit )
+		{
+			ICompilationUnit cunit = (ICompilationUnit) element;
+			boolean mocked = hasIndexedMocks(cunit);
+
+			synchronized (workingCopies)
+			{
+				Map<IMethod, List<Usage>> shownMocks = workingCopies.get(cunit);
+
+				if( !mocked && (shownMocks == null || shownMocks.isEmpty()) ) // nothing to show or remove
+				{
+					if( shownMocks == null ) // still updated when the index changes
+					{
+						workingCopies.put(cunit, Collections.<IMethod, List<Usage>> emptyMap());
+					}
+					return;
+				}
+
+				pending.add(cunit);
+			}
+
+			job.schedule();
+		}
+	}
+
+	/**
+	 * Drops working copies whose editors were closed, so they are not kept until the next update
+	 */
+	private void forgetDiscarded(final IJavaElementDelta delta)
+	{
+		IJavaElement element = delta.getElement();
+
+		if( element instanceof ICompilationUnit )
+		{
+			ICompilationUnit cunit = (ICompilationUnit) element;
+
+			if( delta.getKind() == IJavaElementDelta.REMOVED || !cunit.isWorkingCopy() )
+			{
+				synchronized (workingCopies)
+				{
+					workingCopies.remove(cunit);
+					pending.remove(cunit);
+				}
+			}
+			return;
+		}
+
+		for (IJavaElementDelta child : delta.getAffectedChildren())
+		{
+			forgetDiscarded(child);
+		}
+	}
+
+	private static boolean hasIndexedMocks(final ICompilationUnit cunit)
+	{
+		List<String> typeNames = new ArrayList<String>();
+
+		try
+		{
+			for (IType type : cunit.getAllTypes())
+			{
+				typeNames.add(type.getFullyQualifiedName('.'));
+			}
+		}
+		catch (JavaModelException e) // structure unknown, let the job find out
+		{
+			return true;
+		}
+
+		return Activator.getMockUsageIndex().hasMocks(typeNames);
+	}
+
+	/**
+	 * Updates all open working copies after mocks have been indexed again
+	 */
+	public void indexChanged()
+	{
+		synchronized (workingCopies)
+		{
+			if( workingCopies.isEmpty() )
+			{
+				return;
+			}
+
+			pending.addAll(workingCopies.keySet());
+		}
+
+		job.schedule(INDEX_CHANGE_DELAY);
+	}
+
+	/**
+	 * Must not block, called from the UI thread
+	 *
+	 * @return mocks of the method whose name is at the offset, empty if there are none or they are not known yet
+	 */
+	public List<Usage> findMocks(final ITypeRoot input, final int offset)
+	{
+		Map<IMethod, List<Usage>> mocked;
+
+		synchronized (workingCopies)
+		{
+			mocked = workingCopies.get(input);
+		}
+
+		if( mocked == null || mocked.isEmpty() || !(input instanceof ICompilationUnit) )
+		{
+			return Collections.emptyList();
+		}
+
+		try
+		{
+			IJavaElement element = ((ICompilationUnit) input).getElementAt(offset);
+
+			if( element instanceof IMethod && contains(((IMethod) element).getNameRange(), offset) )
+			{
+				return getMocks(mocked, element);
+			}
+		}
+		catch (JavaModelException e) // not in sync with the document, no link
+		{
+		}
+
+		return Collections.emptyList();
+	}
+
+	private static List<Usage> getMocks(final Map<IMethod, List<Usage>> mocked, final IJavaElement method)
+	{
+		List<Usage> mocks = mocked.get(method);
+		return mocks == null ? Collections.<Usage> emptyList() : mocks;
+	}
+
+	private static boolean contains(final ISourceRange range, final int offset)
+	{
+		return range != null && range.getOffset() <= offset && offset < range.getOffset() + range.getLength();
+	}
+
+	/**
+	 * @return mocked methods of the working copy with their mocks, in source order
+	 */
+	private static Map<IMethod, List<Usage>> findMockedMethods(final ICompilationUnit cunit)
+			throws JavaModelException
+	{
+		Map<IMethod, List<Usage>> mocked = new LinkedHashMap<IMethod, List<Usage>>();
+		MockUsageIndex index = Activator.getMockUsageIndex();
+
+		for (IType type : cunit.getAllTypes())
+		{
+			for (IMethod meth : type.getMethods())
+			{
+				List<Usage> mocks = index.findMocksOfMethod(meth);
+
+				if( !mocks.isEmpty() )
+				{
+					mocked.put(meth, Collections.unmodifiableList(mocks));
+				}
+			}
+		}
+
+		return mocked;
+	}
+
+	private void deliver(final ICompilationUnit cunit, final String source, final Map<Annotation, Position> added)
+	{
+		PlatformUI.getWorkbench().getDisplay().asyncExec(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if( source != null && !source.equals(getSource(cunit)) ) // superseded by an edit
+				{
+					return;
+				}
+
+				for (IAnnotationModel model : AsyncReconciler.getAnnotationModels(cunit))
+				{
+					showAnnotations(model, added);
+				}
+			}
+		});
+	}
+
+	private static Map<Annotation, Position> createAnnotations(final Map<IMethod, List<Usage>> mocked)
+	{
+		Map<Annotation, Position> annotations = new HashMap<Annotation, Position>();
+
+		for (Map.Entry<IMethod, List<Usage>> e : mocked.entrySet())
+		{
+			try
+			{
+				ISourceRange nameRange = e.getKey().getNameRange();
+
+				if( nameRange != null && nameRange.getOffset() >= 0 )
+				{
+					annotations.put(new Annotation(ANNOTATION_TYPE, false, getText(e.getValue())),
+							new Position(nameRange.getOffset(), nameRange.getLength()));
+				}
+			}
+			catch (JavaModelException ex) // method is gone
+			{
+			}
+		}
+
+		return annotations;
+	}
+
+	private static String getText(final List<Usage> mocks)
+	{
+		StringBuilder text = new StringBuilder("Mocked by ").append(mocks.size());
+		String sep = ": ";
+
+		for (Usage mock : mocks)
+		{
+			text.append(sep).append(mock.label);
+			sep = ", ";
+		}
+
+		return text.toString();
+	}
+
+	private void showAnnotations(final IAnnotationModel model, final Map<Annotation, Position> added)
+	{
+		Annotation[] old = shown.get(model);
+
+		if( model instanceof IAnnotationModelExtension )
+		{
+			((IAnnotationModelExtension) model).replaceAnnotations(old, added);
+		}
+		else
+		{
+			for (int i = 0; old != null && i < old.length; i++)
+			{
+				model.removeAnnotation(old[i]);
+			}
+
+			for (Map.Entry<Annotation, Position> ann : added.entrySet())
+			{
+				model.addAnnotation(ann.getKey(), ann.getValue());
+			}
+		}
+
+		shown.put(model, added.keySet().toArray(new Annotation[added.size()]));
+	}
+
+	private static String getSource(final ICompilationUnit cunit)
+	{
+		try
+		{
+			return cunit.getSource();
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+
+	private final class UpdateJob extends Job
+	{
+		UpdateJob()
+		{
+			super("JMockit mocked methods");
+
+			setSystem(true);
+			setPriority(Job.DECORATE);
+		}
+
+		@Override
+		protected IStatus run(final IProgressMonitor mon)
+		{
+			List<ICompilationUnit> units;
+			synchronized (workingCopies)
+			{
+				units = new ArrayList<ICompilationUnit>(pending);
+				pending.clear();
+			}
+
+			for (int i = 0; i < units.size(); i++)
+			{
+				ICompilationUnit cunit = units.get(i);
+
+				if( mon.isCanceled() )
+				{
+					synchronized (workingCopies) // updated by the next run
+					{
+						pending.addAll(units.subList(i, units.size()));
+					}
+					return Status.CANCEL_STATUS;
+				}
+
+				if( !cunit.isWorkingCopy() ) // editor closed
+				{
+					synchronized (workingCopies)
+					{
+						workingCopies.remove(cunit);
+					}
+					continue;
+				}
+
+				try
+				{
+					String source = cunit.getSource();
+					Map<IMethod, List<Usage>> mocked = findMockedMethods(cunit);
+					Map<IMethod, List<Usage>> previous;
+
+					synchronized (workingCopies)
+					{
+						previous = workingCopies.put(cunit, mocked);
+					}
+
+					if( mocked.isEmpty() && (previous == null || previous.isEmpty()) ) // nothing to show or remove
+					{
+						continue;
+					}
+
+					deliver(cunit, source, createAnnotations(mocked));
+				}
+				catch (JavaModelException e)
+				{
+					Activator.log(e);
+				}
+			}
+
+			return Status.OK_STATUS;
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * Remembers which Java files reference the mockit package so that other files are never parsed.
+ * Entries are validated with the file modification stamp, dropped on resource deltas
+ * and saved in the plug-in state location between sessions.
+ */
+final class MockitReferenceIndex implements IResourceChangeListener
+{
+	private static final String MOCKIT = "mockit";
+	private static final String JAVA_EXT = "java";
+	private static final char SEPARATOR = '\t';
+
+	private final Map<IPath, Entry> entries = new ConcurrentHashMap<IPath, Entry>();
+	private final File storeFile;
+	private volatile boolean dirty = false;
+
+	MockitReferenceIndex(final File store)
+	{
+		storeFile = store;
+	}
+
+	/**
+	 * @return {@code false} only if the saved file contents certainly do not reference mockit
+	 */
+	public boolean referencesMockit(final IFile file)
+	{
+		long stamp = file.getModificationStamp();
+		Entry entry = entries.get(file.getFullPath());
+
+		if( entry != null && entry.stamp == stamp )
+		{
+			return entry.references;
+		}
+
+		try
+		{
+			boolean references = scan(file);
+			entries.put(file.getFullPath(), new Entry(stamp, references));
+			dirty = true;
+
+			return references;
+		}
+		catch (Exception e) // out of sync or unreadable, let the parser decide
+		{
+			return true;
+		}
+	}
+
+	/**
+	 * Never reads the file, for callers that must not block on I/O
+	 *
+	 * @return {@code true} only if the index already knows that the saved contents do not reference mockit
+	 */
+	public boolean isKnownToNotReferenceMockit(final IFile file)
+	{
+		Entry entry = entries.get(file.getFullPath());
+
+		return entry != null && entry.stamp == file.getModificationStamp() && !entry.references;
+	}
+
+	/**
+	 * Same as {@link #referencesMockit(IFile)} but looks at the buffer of working copies with unsaved changes
+	 */
+	public boolean referencesMockit(final ICompilationUnit cunit)
+	{
+		try
+		{
+			IResource res = cunit.getResource();
+
+			if( !cunit.hasUnsavedChanges() && res instanceof IFile )
+			{
+				return referencesMockit((IFile) res);
+			}
+
+			String source = cunit.getSource();
+			return source == null || source.contains(MOCKIT);
+		}
+		catch (JavaModelException e)
+		{
+			return true;
+		}
+	}
+
+	private static boolean scan(final IFile file) throws CoreException, IOException
+	{
+		InputStream in = file.getContents(true);
+		try
+		{
+			Reader reader = new BufferedReader(new InputStreamReader(in, file.getCharset()));
+			StringBuilder content = new StringBuilder();
+			char[] buf = new char[8192];
+
+			for (int len = reader.read(buf); len != -1; len = reader.read(buf))
+			{
+				content.append(buf, 0, len);
+			}
+
+			return content.indexOf(MOCKIT) != -1;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	@Override
+	public void resourceChanged(final IResourceChangeEvent event)
+	{
+		IResourceDelta delta = event.getDelta();
+
+		if( delta == null )
+		{
+			return;
+		}
+
+		try
+		{
+			delta.accept(new IResourceDeltaVisitor()
+			{
+				@Override
+				public boolean visit(final IResourceDelta child)
+				{
+					IResource res = child.getResource();
+
+					if( res.getType() != IResource.FILE )
+					{
+						if( child.getKind() == IResourceDelta.REMOVED )
+						{
+							removeAll(res.getFullPath());
+							return false;
+						}
+						return true;
+					}
+
+					if( !JAVA_EXT.equals(res.getFileExtension()) )
+					{
+						return false;
+					}
+
+					if( child.getKind() == IResourceDelta.REMOVED
+							|| (child.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0 )
+					{
+						if( entries.remove(res.getFullPath()) != null )
+						{
+							dirty = true;
+						}
+					}
+
+					return false;
+				}
+			});
+		}
+		catch (CoreException e)
+		{
+			Activator.log(e);
+		}
+	}
+
+	private void removeAll(final IPath container)
+	{
+		for (IPath path : entries.keySet())
+		{
+			if( container.isPrefixOf(path) )
+			{
+				entries.remove(path);
+				dirty = true;
+			}
+		}
+	}
+
+	public void load()
+	{
+		if( !storeFile.exists() )
+		{
+			return;
+		}
+
+		try
+		{
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(storeFile), "UTF-8"));
+			try
+			{
+				for (String line = reader.readLine(); line != null; line = reader.readLine())
+				{
+					int first = line.indexOf(SEPARATOR);
+					int second = line.indexOf(SEPARATOR, first + 1);
+
+					if( first > 0 && second > first )
+					{
+						long stamp = Long.parseLong(line.substring(0, first));
+						boolean references = Boolean.parseBoolean(line.substring(first + 1, second));
+						entries.put(Path.fromPortableString(line.substring(second + 1)), new Entry(stamp, references));
+					}
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch (Exception e)
+		{
+			entries.clear(); // corrupt index is rebuilt on demand
+			Activator.log(e);
+		}
+
+		dirty = false;
+	}
+
+	public void save()
+	{
+		if( !dirty )
+		{
+			return;
+		}
+
+		try
+		{
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(storeFile), "UTF-8"));
+			try
+			{
+				for (Map.Entry<IPath, Entry> e : entries.entrySet())
+				{
+					writer.write(Long.toString(e.getValue().stamp));
+					writer.write(SEPARATOR);
+					writer.write(Boolean.toString(e.getValue().references));
+					writer.write(SEPARATOR);
+					writer.write(e.getKey().toPortableString());
+					writer.write('\n');
+				}
+			}
+			finally
+			{
+				writer.close();
+			}
+
+			dirty = false;
+		}
+		catch (IOException e)
+		{
+			Activator.log(e);
+		}
+	}
+
+	private static final class Entry
+	{
+		final long stamp;
+		final boolean references;
+
+		Entry(final long modificationStamp, final boolean referencesMockit)
+		{
+			stamp = modificationStamp;
+			references = referencesMockit;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import static jmockit.assist.JMockitCompilationParticipant.MARKER;
+import static org.eclipse.core.resources.IMarker.SEVERITY_ERROR;
+import static org.eclipse.core.resources.IMarker.SEVERITY_WARNING;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+
+/**
+ * Publishes analysis problems as markers. Existing markers are only touched if they differ from
+ * the new problems and all changes of a batch are made in one workspace operation,
+ * so a rebuild without changes produces no marker deltas.
+ */
+final class ProblemMarkers
+{
+	private static final String[] ATTRIBUTES = new String[] {
+		IMarker.TRANSIENT, IMarker.MESSAGE, IMarker.LINE_NUMBER,
+		IMarker.CHAR_START, IMarker.CHAR_END, IMarker.SEVERITY
+	};
+
+	private ProblemMarkers()
+	{
+	}
+
+	public static void publish(final Map<IFile, CategorizedProblem[]> problems, final IProgressMonitor mon)
+			throws CoreException
+	{
+		if( problems.isEmpty() )
+		{
+			return;
+		}
+
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		workspace.run(new IWorkspaceRunnable()
+		{
+			@Override
+			public void run(final IProgressMonitor monitor) throws CoreException
+			{
+				for (Map.Entry<IFile, CategorizedProblem[]> entry : problems.entrySet())
+				{
+					update(entry.getKey(), entry.getValue());
+				}
+			}
+		}, null, IWorkspace.AVOID_UPDATE, mon);
+	}
+
+	private static void update(final IFile file, final CategorizedProblem[] probs) throws CoreException
+	{
+		if( !file.exists() )
+		{
+			return;
+		}
+
+		List<Object[]> toCreate = new LinkedList<Object[]>();
+		for (CategorizedProblem prob : probs)
+		{
+			toCreate.add(getAttributeValues(prob));
+		}
+
+		List<IMarker> toDelete = new ArrayList<IMarker>();
+		for (IMarker marker : file.findMarkers(MARKER, true, IResource.DEPTH_INFINITE))
+		{
+			if( !removeEqual(toCreate, marker.getAttributes(ATTRIBUTES)) )
+			{
+				toDelete.add(marker);
+			}
+		}
+
+		if( !toDelete.isEmpty() )
+		{
+			file.getWorkspace().deleteMarkers(toDelete.toArray(new IMarker[toDelete.size()]));
+		}
+
+		for (Object[] values : toCreate)
+		{
+			IMarker marker = file.createMarker(MARKER);
+			marker.setAttributes(ATTRIBUTES, values);
+		}
+	}
+
+	private static boolean removeEqual(final List<Object[]> values, final Object[] existing)
+	{
+		for (Iterator<Object[]> it = values.iterator(); it.hasNext();)
+		{
+			if( Arrays.equals(it.next(), existing) )
+			{
+				it.remove();
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static Object[] getAttributeValues(final CategorizedProblem prob)
+	{
+		return new Object[] {
+			Boolean.TRUE,
+			prob.getMessage(),
+			Integer.valueOf(prob.getSourceLineNumber()),
+			Integer.valueOf(prob.getSourceStart()),
+			Integer.valueOf(prob.getSourceEnd()),
+			Integer.valueOf(prob.isError() ? SEVERITY_ERROR : SEVERITY_WARNING)
+		};
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2012 Andrejs Jermakovics.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package jmockit.assist;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.jdt.core.dom.ITypeBinding;
+
+/**
+ * Recognises types like mockit.MockUp and mockit.Mock by name without building a qualified name
+ * for every binding that is inspected. Bindings of one lookup environment share the binding of
+ * a generic type, so the name of each erasure is computed once and then found by identity.
+ */
+final class TypeNames
+{
+	private static final ThreadLocal<Map<ITypeBinding, String>> NAMES = new ThreadLocal<Map<ITypeBinding, String>>()
+	{
+		@Override
+		protected Map<ITypeBinding, String> initialValue()
+		{
+			return new WeakHashMap<ITypeBinding, String>(); // bindings are compared by identity
+		}
+	};
+
+	private TypeNames()
+	{
+	}
+
+	/**
+	 * @return true if the erasure of the type has the given qualified name
+	 */
+	public static boolean is(final ITypeBinding type, final String qualifiedName)
+	{
+		return type != null && qualifiedName.equals(getErasureName(type));
+	}
+
+	private static String getErasureName(final ITypeBinding type)
+	{
+		ITypeBinding erasure = type.getErasure();
+		Map<ITypeBinding, String> names = NAMES.get();
+		String name = names.get(erasure);
+
+		if( name == null )
+		{
+			name = erasure.getQualifiedName();
+			names.put(erasure, name);
+		}
+
+		return name;
+	}
+}
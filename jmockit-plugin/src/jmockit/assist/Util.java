@@ -14,6 +14,9 @@ package jmockit.assist;
 import java.util.Collection;
 import java.util.Collections;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+
 public class Util
 {
 	public static <T> T firstNonNull(final T...ts)
@@ -38,4 +41,19 @@ public class Util
 
 		return coll;
 	}
+
+	/**
+	 * @return monitor that only forwards cancellation, for work that must not report progress to the given one
+	 */
+	public static IProgressMonitor cancelOnly(final IProgressMonitor mon)
+	{
+		return new NullProgressMonitor()
+		{
+			@Override
+			public boolean isCanceled()
+			{
+				return mon.isCanceled();
+			}
+		};
+	}
 }
@@ -28,5 +28,7 @@ public final class PrefInitializer extends AbstractPreferenceInitializer
 		IPreferenceStore prefStore = Activator.getPrefStore();
 		prefStore.setDefault(Prefs.PROP_CHECK_SCOPE, Prefs.CheckScope.File.name());
 		prefStore.setDefault(Prefs.PROP_ADD_JAVAAGENT, true);
+		prefStore.setDefault(Prefs.PROP_ASYNC_RECONCILE, false);
+		prefStore.setDefault(Prefs.PROP_CLASS_DATA_SHARING, false);
 	}
 }
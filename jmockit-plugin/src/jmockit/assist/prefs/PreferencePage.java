@@ -52,8 +52,14 @@ public final class PreferencePage extends FieldEditorPreferencePage implements I
 		addField(new ComboFieldEditor(Prefs.PROP_CHECK_SCOPE, "Check scope",
 				values , getFieldEditorParent()));
 
+		addField(new BooleanFieldEditor(Prefs.PROP_ASYNC_RECONCILE,
+				"Check mocks in background while typing", getFieldEditorParent()));
+
 		addField(new BooleanFieldEditor(Prefs.PROP_ADD_JAVAAGENT,
 				"Add -javaagent:jmockit.jar when running JUnit", getFieldEditorParent()));
+
+		addField(new BooleanFieldEditor(Prefs.PROP_CLASS_DATA_SHARING,
+				"Share class data between JUnit launches with JMockit (Java 13+)", getFieldEditorParent()));
 	}
 
 	@Override
@@ -15,6 +15,8 @@ public final class Prefs
 {
 	public static final String PROP_CHECK_SCOPE = "checkScope";
 	public static final String PROP_ADD_JAVAAGENT= "addJavaAgent";
+	public static final String PROP_ASYNC_RECONCILE = "asyncReconcile";
+	public static final String PROP_CLASS_DATA_SHARING = "classDataSharing";
 
 
 	public enum CheckScope